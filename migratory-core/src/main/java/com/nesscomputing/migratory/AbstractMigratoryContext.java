@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory;
+
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+
+import com.nesscomputing.migratory.dbsupport.DbSupport;
+import com.nesscomputing.migratory.information.MigrationInformationStrategy;
+import com.nesscomputing.migratory.jdbi.MigratoryDBI;
+import com.nesscomputing.migratory.loader.LoaderManager;
+import com.nesscomputing.migratory.locator.MigrationLocator;
+import com.nesscomputing.migratory.metadata.LockMetrics;
+import com.nesscomputing.migratory.metadata.MetadataCache;
+import com.nesscomputing.migratory.migration.MigrationCatalog;
+import com.nesscomputing.migratory.migration.sql.ChecksumCache;
+
+
+/**
+ * Base class for migratory contexts. Everything that was added to the context after {@link MigratoryContext}
+ * was published lives here with a default, so that contexts implemented outside of migratory keep working.
+ * Contexts that do not extend this class are wrapped by {@link #adapt(MigratoryContext)}.
+ */
+public abstract class AbstractMigratoryContext implements MigratoryContext
+{
+    /** A checksum cache without a directory, it never caches anything. */
+    private static final ChecksumCache NO_CHECKSUM_CACHE = new ChecksumCache(null, null, null);
+
+    private final MetadataCache metadataCache = new MetadataCache();
+    private final LockMetrics lockMetrics = new LockMetrics();
+
+    private MigrationCatalog migrationCatalog = null;
+
+    /**
+     * Returns the context as an {@link AbstractMigratoryContext}. Contexts that do not extend it are wrapped,
+     * every call returns a new wrapper with its own defaults.
+     */
+    public static AbstractMigratoryContext adapt(final MigratoryContext migratoryContext)
+    {
+        if (migratoryContext == null || migratoryContext instanceof AbstractMigratoryContext) {
+            return (AbstractMigratoryContext) migratoryContext;
+        }
+        return new MigratoryContextAdapter(migratoryContext);
+    }
+
+    /**
+     * Returns the catalog of migrations for this context. The default catalog is created on first use.
+     */
+    public synchronized MigrationCatalog getMigrationCatalog()
+    {
+        if (migrationCatalog == null) {
+            migrationCatalog = new MigrationCatalog(this);
+        }
+        return migrationCatalog;
+    }
+
+    /**
+     * Returns the in-memory copy of the metadata table for this context. It is only used if it is
+     * enabled in the configuration.
+     */
+    public MetadataCache getMetadataCache()
+    {
+        return metadataCache;
+    }
+
+    /**
+     * Returns the cache for script checksums. The default does not cache anything.
+     */
+    public ChecksumCache getChecksumCache()
+    {
+        return NO_CHECKSUM_CACHE;
+    }
+
+    /**
+     * Returns how often and how long migrations of this context waited for a personality lock.
+     */
+    public LockMetrics getLockMetrics()
+    {
+        return lockMetrics;
+    }
+
+    /**
+     * Returns the executor that locators use to find and load migrations concurrently, or null to do all of
+     * this on the calling thread. The default is null.
+     */
+    public ExecutorService getLocatorExecutor()
+    {
+        return null;
+    }
+
+    private static class MigratoryContextAdapter extends AbstractMigratoryContext
+    {
+        private final MigratoryContext migratoryContext;
+
+        MigratoryContextAdapter(final MigratoryContext migratoryContext)
+        {
+            this.migratoryContext = migratoryContext;
+        }
+
+        @Override
+        public MigratoryDBI getDBI()
+        {
+            return migratoryContext.getDBI();
+        }
+
+        @Override
+        public MigratoryDBI getRootDBI()
+        {
+            return migratoryContext.getRootDBI();
+        }
+
+        @Override
+        public MigratoryConfig getConfig()
+        {
+            return migratoryContext.getConfig();
+        }
+
+        @Override
+        public DbSupport getDbSupport()
+        {
+            return migratoryContext.getDbSupport();
+        }
+
+        @Override
+        public LoaderManager getLoaderManager()
+        {
+            return migratoryContext.getLoaderManager();
+        }
+
+        @Override
+        public Collection<MigrationLocator> getLocators()
+        {
+            return migratoryContext.getLocators();
+        }
+
+        @Override
+        public MigrationInformationStrategy getInformationStrategy()
+        {
+            return migratoryContext.getInformationStrategy();
+        }
+    }
+}
@@ -19,8 +19,18 @@ package com.nesscomputing.migratory;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 import com.nesscomputing.migratory.metadata.MetadataInfo;
 import com.nesscomputing.migratory.metadata.MetadataManager;
@@ -71,37 +81,23 @@ class InternalMigrator extends AbstractMigratorySupport
             if (planToExecute == null || planToExecute.isEmpty()) {
                 planToExecute = new MigrationPlan();
                 for (String existingPersonality : existingPersonalities) {
-                    migrationPlan.addMigration(existingPersonality);
+                    planToExecute.addMigration(existingPersonality);
                 }
             }
 
-            // Make sure that all requested personalities either already exist in the
-            // database or that they can be created.
-            for (final MigrationPlanEntry migrationPlanEntry : planToExecute.getEntries()) {
-                final String personalityName = migrationPlanEntry.getPersonalityName();
-
-                try {
-                    metadataManager.lock(personalityName);
-                    final List<MigrationResult> results = migratePersonality(metadataManager, personalityName, migrationPlanEntry.getTargetVersion(), options);
-
-                    final List<MetadataInfo> personalityMigrationResult = metadataManager.commit(results);
-                    if (!personalityMigrationResult.isEmpty()) {
-                        migrationResults.put(personalityName, personalityMigrationResult);
-                    }
-
-                    final MigrationState state = MigrationResult.determineMigrationState(results);
+            final int migrationThreads = migratoryConfig.getMigrationThreads();
+            if (migrationThreads > 1) {
+                migrateParallel(planToExecute, migrationThreads, migrationResults, options);
+            }
+            else {
+                // Make sure that all requested personalities either already exist in the
+                // database or that they can be created.
+                for (final MigrationPlanEntry migrationPlanEntry : planToExecute.getEntries()) {
+                    final MigrationState state = migratePlanEntry(metadataManager, migrationPlanEntry, migrationResults, options);
                     if (state != MigrationState.OK) {
                         break;
                     }
                 }
-                catch (MigratoryException me) {
-                    metadataManager.rollback();
-                    throw me;
-                }
-                catch (RuntimeException re) {
-                    metadataManager.rollback();
-                    throw re;
-                }
             }
             return migrationResults;
         }
@@ -111,7 +107,153 @@ class InternalMigrator extends AbstractMigratorySupport
     }
 
     /**
-     * Performs the migration of a personality. This must be run under the table lock so that only one thread can use it at a time.
+     * Runs the personalities of a plan on a bounded pool of threads. All personalities with the same priority
+     * are migrated concurrently, each one with its own metadata manager (and therefore its own transaction and
+     * lock). A priority group must finish completely before the next group is started.
+     *
+     * The personalities only make progress at the same time if the lock strategy of the database locks single
+     * personalities. With a strategy that locks the whole metadata table (the default for DbSupport implementations
+     * that do not provide their own, and H2 without MVCC), the migrations wait for each other.
+     */
+    private void migrateParallel(final MigrationPlan planToExecute, final int migrationThreads, final Map<String, List<MetadataInfo>> migrationResults, final MigratoryOption [] options)
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(migrationThreads, new ThreadFactoryBuilder().setNameFormat("migratory-%d").setDaemon(true).build());
+
+        try {
+            for (final List<MigrationPlanEntry> priorityGroup : groupByPriority(planToExecute)) {
+                LOG.debug("Migrating {} personalities in parallel", priorityGroup.size());
+
+                final List<Future<MigrationState>> futures = Lists.newArrayListWithCapacity(priorityGroup.size());
+                for (final MigrationPlanEntry migrationPlanEntry : priorityGroup) {
+                    futures.add(executor.submit(new Callable<MigrationState>() {
+                        @Override
+                        public MigrationState call() {
+                            // Each thread migrates with connections of its own.
+                            migratoryContext.getDBI().beginSession();
+                            try {
+                                return migratePlanEntry(new MetadataManager(migratoryContext), migrationPlanEntry, migrationResults, options);
+                            }
+                            finally {
+                                migratoryContext.getDBI().endSession();
+                            }
+                        }
+                    }));
+                }
+
+                // Wait for the whole group, even if a personality failed. Otherwise a migration might still be
+                // running when the caller already got an exception.
+                boolean groupOk = true;
+                Throwable failure = null;
+                for (final Future<MigrationState> future : futures) {
+                    try {
+                        if (future.get() != MigrationState.OK) {
+                            groupOk = false;
+                        }
+                    }
+                    catch (ExecutionException ee) {
+                        if (failure == null) {
+                            failure = ee.getCause();
+                        }
+                    }
+                }
+
+                if (failure != null) {
+                    throw Throwables.propagate(failure);
+                }
+
+                if (!groupOk) {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new MigratoryException(Reason.INTERNAL, ie);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits the plan into groups of entries with the same priority. The plan entries are already sorted by
+     * priority. A personality that shows up twice within a priority is moved into a separate group, so that
+     * its migrations still execute in plan order.
+     */
+    private static List<List<MigrationPlanEntry>> groupByPriority(final MigrationPlan migrationPlan)
+    {
+        final List<List<MigrationPlanEntry>> priorityGroups = Lists.newArrayList();
+
+        List<MigrationPlanEntry> priorityGroup = null;
+        final Set<String> groupPersonalities = Sets.newHashSet();
+
+        for (final MigrationPlanEntry migrationPlanEntry : migrationPlan.getEntries()) {
+            if (priorityGroup == null
+                || priorityGroup.get(0).getPriority() != migrationPlanEntry.getPriority()
+                || groupPersonalities.contains(migrationPlanEntry.getPersonalityName())) {
+                priorityGroup = Lists.newArrayList();
+                priorityGroups.add(priorityGroup);
+                groupPersonalities.clear();
+            }
+            priorityGroup.add(migrationPlanEntry);
+            groupPersonalities.add(migrationPlanEntry.getPersonalityName());
+        }
+        return priorityGroups;
+    }
+
+    /**
+     * Locks, migrates and commits a single entry of the migration plan.
+     */
+    private MigrationState migratePlanEntry(final MetadataManager metadataManager, final MigrationPlanEntry migrationPlanEntry, final Map<String, List<MetadataInfo>> migrationResults, final MigratoryOption [] options)
+    {
+        final String personalityName = migrationPlanEntry.getPersonalityName();
+
+        try {
+            if (!metadataManager.lock(personalityName, getWaitVersion(personalityName, migrationPlanEntry.getTargetVersion()))) {
+                // Another migrator already did the work.
+                return MigrationState.OK;
+            }
+            final List<MigrationResult> results = migratePersonality(metadataManager, personalityName, migrationPlanEntry.getTargetVersion(), options);
+
+            final List<MetadataInfo> personalityMigrationResult = metadataManager.commit(results);
+            if (!personalityMigrationResult.isEmpty()) {
+                synchronized (migrationResults) {
+                    migrationResults.put(personalityName, personalityMigrationResult);
+                }
+            }
+
+            return MigrationResult.determineMigrationState(results);
+        }
+        catch (MigratoryException me) {
+            metadataManager.rollback();
+            throw me;
+        }
+        catch (RuntimeException re) {
+            metadataManager.rollback();
+            throw re;
+        }
+    }
+
+    /**
+     * Returns the version that makes waiting for the lock of a personality unnecessary, or null
+     * if only the lock will do.
+     */
+    private Integer getWaitVersion(final String personalityName, final int targetVersion)
+    {
+        if (migratoryConfig.getLockTimeout() <= 0L) {
+            return null;
+        }
+
+        if (targetVersion != Integer.MAX_VALUE) {
+            return targetVersion;
+        }
+
+        final int lastVersion = new MigrationManager(migratoryContext, personalityName).getMigrationGraph().getLastVersion();
+        return lastVersion == Integer.MIN_VALUE ? null : lastVersion;
+    }
+
+    /**
+     * Performs the migration of a personality. This must be run under the personality lock so that only one thread can migrate a personality at a time.
      */
     private List<MigrationResult> migratePersonality(final MetadataManager metadataManager, final String personalityName, final Integer targetVersion, final MigratoryOption [] options)
     {
@@ -130,7 +272,7 @@ class InternalMigrator extends AbstractMigratorySupport
         if (history != null && !history.isEmpty()) {
             // "No verify" option skips this step.
             if (!MigratoryOption.containsOption(MigratoryOption.NO_VERIFY, options)) {
-                final DbValidator dbValidator = new DbValidator(migrationManager);
+                final DbValidator dbValidator = new DbValidator(migrationManager, migratoryContext.getConfig().isAcceptLegacyChecksums());
                 final ValidationResult validationResult = dbValidator.validate(history);
 
                 if (validationResult.getValidationStatus() != ValidationStatus.OK) {
@@ -101,7 +101,8 @@ class InternalStatus extends AbstractMigratorySupport
                                                              migrationPlanner.getDirection(),
                                                              currentVersion,
                                                              migrationPlanner.getFirstVersion(),
-                                                             migrationPlanner.getLastVersion());
+                                                             migrationPlanner.getLastVersion(),
+                                                             migrationPlanner.getReachableVersions());
 
                 results.put(personalityName, result);
             }
@@ -48,7 +48,7 @@ class InternalValidator extends AbstractMigratorySupport
         final Map<String, ValidationResult> results = Maps.newTreeMap();
 
         for (Map.Entry<String, List<MetadataInfo>> personality : recordedMigrations.entrySet()) {
-            final DbValidator dbValidator = new DbValidator(new MigrationManager(migratoryContext, personality.getKey()));
+            final DbValidator dbValidator = new DbValidator(new MigrationManager(migratoryContext, personality.getKey()), migratoryContext.getConfig().isAcceptLegacyChecksums());
             final ValidationResult result = dbValidator.validate(personality.getValue());
             results.put(personality.getKey(), result);
         }
@@ -21,10 +21,14 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.lang3.StringUtils;
 import org.skife.config.ConfigurationObjectFactory;
@@ -40,9 +44,11 @@ import com.nesscomputing.migratory.dbsupport.DbSupportFactory;
 import com.nesscomputing.migratory.information.DefaultMigrationInformationStrategy;
 import com.nesscomputing.migratory.information.MigrationInformationStrategy;
 import com.nesscomputing.migratory.jdbi.MigratoryDBI;
+import com.nesscomputing.migratory.jdbi.PooledConnectionFactory;
 import com.nesscomputing.migratory.loader.ClasspathLoader;
 import com.nesscomputing.migratory.loader.FileLoader;
 import com.nesscomputing.migratory.loader.JarLoader;
+import com.nesscomputing.migratory.loader.LoadedFileCache;
 import com.nesscomputing.migratory.loader.LoaderManager;
 import com.nesscomputing.migratory.loader.MetadataLoader;
 import com.nesscomputing.migratory.loader.MigrationLoader;
@@ -50,15 +56,17 @@ import com.nesscomputing.migratory.locator.MetadataMigrationLocator;
 import com.nesscomputing.migratory.locator.MigrationLocator;
 import com.nesscomputing.migratory.metadata.MetadataInfo;
 import com.nesscomputing.migratory.metadata.MetadataManager;
+import com.nesscomputing.migratory.migration.MigrationCatalog;
 import com.nesscomputing.migratory.migration.MigrationPlan;
 import com.nesscomputing.migratory.migration.MigrationResult.MigrationState;
+import com.nesscomputing.migratory.migration.sql.ChecksumCache;
 import com.nesscomputing.migratory.validation.ValidationResult;
 
 
 /**
  * Main facade. Application code should only deal with this class.
  */
-public class Migratory implements MigratoryContext
+public class Migratory extends AbstractMigratoryContext
 {
     private static final Logger LOG = LoggerFactory.getLogger(Migratory.class);
 
@@ -72,8 +80,16 @@ public class Migratory implements MigratoryContext
 
     private MigrationInformationStrategy informationStrategy = new DefaultMigrationInformationStrategy();
     private DbSupportFactory dbSupportFactory = new DbSupportFactory();
+    private String dbUrl = null;
+
+    private final MigrationCatalog migrationCatalog = new MigrationCatalog(this);
+
+    private final List<PooledConnectionFactory> connectionPools = Lists.newArrayList();
+
+    private ExecutorService locatorExecutor = null;
 
     private volatile DbSupport dbSupport = null;
+    private volatile ChecksumCache checksumCache = null;
     private boolean initialized = false;
 
     public Migratory(final MigratoryConfig migratoryConfig, final IDBI dbi)
@@ -96,6 +112,7 @@ public class Migratory implements MigratoryContext
         this.migratoryConfig = migratoryConfig;
         this.dbi = new MigratoryDBI(createDBI(dbiConfig));
         this.rootDbi = new MigratoryDBI(createDBI(rootDbiConfig));
+        this.dbUrl = dbiConfig.getDBUrl();
     }
 
     public Migratory(final MigratoryConfig migratoryConfig, final MigratoryDBIConfig dbiConfig)
@@ -104,6 +121,7 @@ public class Migratory implements MigratoryContext
         this.migratoryConfig = migratoryConfig;
         this.dbi = new MigratoryDBI(createDBI(dbiConfig));
         this.rootDbi = this.dbi;
+        this.dbUrl = dbiConfig.getDBUrl();
     }
 
     public Migratory(final Properties properties)
@@ -112,8 +130,10 @@ public class Migratory implements MigratoryContext
         final ConfigurationObjectFactory factory = new ConfigurationObjectFactory(new SimplePropertyConfigSource(properties));
 
         this.migratoryConfig = factory.build(MigratoryConfig.class);
-        this.dbi = new MigratoryDBI(createDBI(factory.buildWithReplacements(MigratoryDBIConfig.class, ImmutableMap.of("_migratory", "migratory."))));
+        final MigratoryDBIConfig dbiConfig = factory.buildWithReplacements(MigratoryDBIConfig.class, ImmutableMap.of("_migratory", "migratory."));
+        this.dbi = new MigratoryDBI(createDBI(dbiConfig));
         this.rootDbi = this.dbi;
+        this.dbUrl = dbiConfig.getDBUrl();
     }
 
     protected void init()
@@ -128,7 +148,14 @@ public class Migratory implements MigratoryContext
             loaderManager.addLoader(new JarLoader(charset));
             loaderManager.addLoader(new ClasspathLoader(loaderManager));
 
-            this.dbSupport = dbSupportFactory.getDbSupport(dbi);
+            final long fileCacheSize = migratoryConfig.getFileCacheSize();
+            if (fileCacheSize > 0L) {
+                loaderManager.setFileCache(new LoadedFileCache(fileCacheSize));
+            }
+
+            this.dbSupport = dbSupportFactory.getDbSupport(dbi, dbUrl, migratoryConfig.getDbType());
+            getMetadataCache().setMaxAge(migratoryConfig.getMetadataCacheMaxAge());
+            this.checksumCache = new ChecksumCache(migratoryConfig.getChecksumCacheDir(), migratoryConfig.getEncoding(), loaderManager);
 
             initialized = true;
 
@@ -156,22 +183,40 @@ public class Migratory implements MigratoryContext
 
     /**
      * Bring the current database to the requested levels.
+     *
+     * All db* operations run in a session of the DBI, so that an operation opens only as many connections
+     * as it needs at the same time (see {@link MigratoryDBI}).
      */
     public Map<String, List<MetadataInfo>> dbMigrate(final MigrationPlan migrationPlan, final MigratoryOption ... options) throws MigratoryException
     {
-        init();
-        final InternalMigrator migrator = new InternalMigrator(this);
-        return migrator.migrate(migrationPlan, options);
+        dbi.beginSession();
+        try {
+            init();
+            final InternalMigrator migrator = new InternalMigrator(this);
+            return migrator.migrate(migrationPlan, options);
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
     /**
      * Run validation on the database. Make sure that all the changes recorded in the database are the same as the ones that should be applied.
+     * Migrations that this instance has already loaded are only reused if their sources did not change since.
      */
     public Map<String, ValidationResult> dbValidate(final Collection<String> personalities, final MigratoryOption ... options) throws MigratoryException
     {
-        init();
-        final InternalValidator validator = new InternalValidator(this);
-        return validator.validate(personalities, options);
+        dbi.beginSession();
+        try {
+            init();
+            // Validation compares the database against the current migration sources, never against a stale copy.
+            migrationCatalog.invalidateChanged();
+            final InternalValidator validator = new InternalValidator(this);
+            return validator.validate(personalities, options);
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
     /**
@@ -179,9 +224,17 @@ public class Migratory implements MigratoryContext
      */
     public void dbClean(final MigratoryOption ... options)
     {
-        init();
-        final InternalClean internalClean = new InternalClean(this);
-        internalClean.clean(options);
+        dbi.beginSession();
+        try {
+            init();
+            final InternalClean internalClean = new InternalClean(this);
+            internalClean.clean(options);
+            // The metadata table was dropped as well.
+            getMetadataCache().invalidate();
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
     /**
@@ -189,9 +242,15 @@ public class Migratory implements MigratoryContext
      */
     public Map<String, StatusResult> dbStatus(final Collection<String> personalities, final MigratoryOption ... options)
     {
-        init();
-        final InternalStatus internalStatus = new InternalStatus(this);
-        return internalStatus.status(personalities, options);
+        dbi.beginSession();
+        try {
+            init();
+            final InternalStatus internalStatus = new InternalStatus(this);
+            return internalStatus.status(personalities, options);
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
 
@@ -201,9 +260,15 @@ public class Migratory implements MigratoryContext
         public Map<String, List<MetadataInfo>> dbHistory(final Collection<String> personalities, final MigratoryOption ... options)
             throws MigratoryException
     {
-        init();
-        final InternalHistory internalHistory = new InternalHistory(this);
-        return internalHistory.history(personalities, options);
+        dbi.beginSession();
+        try {
+            init();
+            final InternalHistory internalHistory = new InternalHistory(this);
+            return internalHistory.history(personalities, options);
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
     /**
@@ -214,9 +279,15 @@ public class Migratory implements MigratoryContext
      */
     public List<MetadataInfo> dbInit(final MigratoryOption ... options) throws MigratoryException
     {
-        init();
-        final InternalInit internalInit = new InternalInit(this);
-        return internalInit.init(options);
+        dbi.beginSession();
+        try {
+            init();
+            final InternalInit internalInit = new InternalInit(this);
+            return internalInit.init(options);
+        }
+        finally {
+            dbi.endSession();
+        }
     }
 
     @Override
@@ -261,6 +332,47 @@ public class Migratory implements MigratoryContext
         return loaderManager;
     }
 
+    @Override
+    public MigrationCatalog getMigrationCatalog()
+    {
+        init();
+        return migrationCatalog;
+    }
+
+    @Override
+    public ChecksumCache getChecksumCache()
+    {
+        init();
+        return checksumCache;
+    }
+
+    /**
+     * Returns a bounded pool of locator_threads threads that all locators of this instance share. The pool
+     * is created on first use and shut down by {@link #close()}.
+     */
+    @Override
+    public synchronized ExecutorService getLocatorExecutor()
+    {
+        if (migratoryConfig.getLocatorThreads() <= 1) {
+            return null;
+        }
+
+        if (locatorExecutor == null) {
+            locatorExecutor = Executors.newFixedThreadPool(migratoryConfig.getLocatorThreads(), new ThreadFactoryBuilder().setNameFormat("migratory-locator-%d").setDaemon(true).build());
+        }
+        return locatorExecutor;
+    }
+
+    /**
+     * Drops all migrations that were loaded by this instance. Must be called when migration sources
+     * are changed while the Migratory object is in use.
+     */
+    public Migratory invalidateMigrations()
+    {
+        migrationCatalog.invalidate();
+        return this;
+    }
+
     public Migratory addLocator(final MigrationLocator locator)
     {
         if (initialized) {
@@ -273,13 +385,22 @@ public class Migratory implements MigratoryContext
     }
 
     public Migratory addLoader(final MigrationLoader loader)
+    {
+        return addLoader(loader, LoaderManager.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Adds a loader with a given priority. Loaders with a higher priority are asked first, the built-in
+     * loaders use {@link LoaderManager#DEFAULT_PRIORITY}.
+     */
+    public Migratory addLoader(final MigrationLoader loader, final int priority)
     {
         if (initialized) {
             throw new MigratoryException(Reason.INIT, "Already initialized!");
         }
 
-        loaderManager.addLoader(loader);
-        LOG.debug("Added {} as migration loader.", loader);
+        loaderManager.addLoader(loader, priority);
+        LOG.debug("Added {} as migration loader with priority {}.", loader, priority);
         return this;
     }
 
@@ -299,6 +420,20 @@ public class Migratory implements MigratoryContext
         return this;
     }
 
+    /**
+     * Sets the JDBC URL of the DBI given by the application. The database type is then detected only
+     * once per URL, even across Migratory instances.
+     */
+    public Migratory setDbUrl(final String dbUrl)
+    {
+        if (initialized) {
+            throw new MigratoryException(Reason.INIT, "Already initialized!");
+        }
+
+        this.dbUrl = dbUrl;
+        return this;
+    }
+
     /**
      * Add support for an additional database type. The dbName is *not* the canonical name used but the
      * name returned from the database engine on the JDBC metadata!
@@ -312,6 +447,18 @@ public class Migratory implements MigratoryContext
         return this;
     }
 
+    /**
+     * Add support for an additional database type, created by the given function from the DBI.
+     */
+    public Migratory addDbSupport(final String dbName, final Function<IDBI, ? extends DbSupport> dbSupportFunction)
+    {
+        if (initialized) {
+            throw new MigratoryException(Reason.INIT, "Already initialized!");
+        }
+        dbSupportFactory.addDbSupport(dbName, dbSupportFunction);
+        return this;
+    }
+
     protected DBI createDBI(final MigratoryDBIConfig dbiConfig) throws MigratoryException
     {
         final String driver = dbiConfig.getDBDriverClass();
@@ -337,6 +484,60 @@ public class Migratory implements MigratoryContext
                                                                   dbiConfig.getDBUser(),
                                                                   dbiConfig.isRevealPassword() ? dbiConfig.getDBPassword() : "XXXXX");
 
+        final int poolSize = dbiConfig.getPoolSize();
+        if (poolSize > 0) {
+            final int minimumPoolSize = getMinimumPoolSize(migratoryConfig);
+            if (poolSize < minimumPoolSize) {
+                LOG.warn("A pool of {} connections is too small for {} migration threads, using {} connections.",
+                         new Object [] { poolSize, migratoryConfig.getMigrationThreads(), minimumPoolSize });
+            }
+
+            final String resetQuery = dbiConfig.getPoolResetQuery();
+            final PooledConnectionFactory pool = new PooledConnectionFactory(dbiConfig.getDBUrl(),
+                                                                             dbiConfig.getDBUser(),
+                                                                             dbiConfig.getDBPassword(),
+                                                                             Math.max(poolSize, minimumPoolSize),
+                                                                             dbiConfig.getPoolValidationQuery(),
+                                                                             resetQuery != null ? resetQuery : PooledConnectionFactory.getDefaultResetQuery(dbiConfig.getDBUrl()),
+                                                                             dbiConfig.getPoolIdleTimeout(),
+                                                                             dbiConfig.getPoolMaxWait());
+            LOG.debug("Using a pool of up to {} connections.", Math.max(poolSize, minimumPoolSize));
+            connectionPools.add(pool);
+            return new DBI(pool);
+        }
+
         return new DBI (dbiConfig.getDBUrl(), dbiConfig.getDBUser(), dbiConfig.getDBPassword());
     }
+
+    /**
+     * Returns the smallest connection pool that migrations can run with. Every migration holds the lock on
+     * its personality on one connection and runs its scripts on a second one. With more than one migration
+     * thread, up to migration_threads migrations run at the same time, while the thread that called dbMigrate
+     * keeps the connection of its own session. With a smaller pool, a migration waits for another one to finish
+     * or for the pool wait to time out.
+     */
+    public static int getMinimumPoolSize(final MigratoryConfig migratoryConfig)
+    {
+        final int migrationThreads = migratoryConfig.getMigrationThreads();
+        return migrationThreads > 1 ? 2 * migrationThreads + 1 : 2;
+    }
+
+    /**
+     * Stops the locator threads and closes the connection pools that were created from a {@link MigratoryDBIConfig}
+     * and the jar files opened by the loaders. The DBIs given by the application are not touched.
+     */
+    public void close()
+    {
+        synchronized (this) {
+            if (locatorExecutor != null) {
+                locatorExecutor.shutdownNow();
+                locatorExecutor = null;
+            }
+        }
+
+        for (PooledConnectionFactory pool : connectionPools) {
+            pool.close();
+        }
+        loaderManager.close();
+    }
 }
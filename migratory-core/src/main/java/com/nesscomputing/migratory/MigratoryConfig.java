@@ -15,6 +15,8 @@
  */
 package com.nesscomputing.migratory;
 
+import java.io.File;
+
 import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.DefaultNull;
@@ -35,6 +37,17 @@ public abstract class MigratoryConfig
         return "migratory_metadata";
     }
 
+    /**
+     * Database type as reported by the JDBC driver, e.g. H2 or PostgreSQL. If set, Migratory does not
+     * connect to the database to find out the type.
+     */
+    @Config("migratory.db_type")
+    @DefaultNull
+    public String getDbType()
+    {
+        return null;
+    }
+
     @Config("migratory.readonly")
     @Default("false")
     public boolean isReadOnly()
@@ -63,6 +76,122 @@ public abstract class MigratoryConfig
         return false;
     }
 
+    /**
+     * Number of personalities that are migrated concurrently. Personalities
+     * with the same priority in a migration plan run in parallel, all personalities
+     * of a priority group finish before the next group starts. The default
+     * of 1 migrates all personalities one after another. Personalities only
+     * migrate at the same time if the database locks single personalities,
+     * see {@link com.nesscomputing.migratory.dbsupport.LockStrategy}.
+     */
+    @Config("migratory.migration_threads")
+    @Default("1")
+    public int getMigrationThreads()
+    {
+        return 1;
+    }
+
+    /**
+     * Number of threads used to find migrations. Locators are asked concurrently,
+     * and each locator loads its scripts concurrently, all on one shared pool of
+     * this size. The default of 1 loads everything one after another.
+     */
+    @Config("migratory.locator_threads")
+    @Default("1")
+    public int getLocatorThreads()
+    {
+        return 1;
+    }
+
+    /**
+     * Keep a copy of the metadata table in memory. Status and history calls
+     * then only read the metadata rows that were added since the last call.
+     */
+    @Config("migratory.metadata_cache")
+    @Default("false")
+    public boolean isMetadataCache()
+    {
+        return false;
+    }
+
+    /**
+     * Time in milliseconds after which the metadata cache reads the full metadata table again. Catches
+     * rows that were removed or never became visible, 0 never reloads.
+     */
+    @Config("migratory.metadata_cache_max_age")
+    @Default("60000")
+    public long getMetadataCacheMaxAge()
+    {
+        return 60000L;
+    }
+
+    /**
+     * Accept checksums that were recorded by older versions, which dropped the
+     * leading zero of each byte, when validating migrations.
+     */
+    @Config("migratory.accept_legacy_checksums")
+    @Default("true")
+    public boolean isAcceptLegacyChecksums()
+    {
+        return true;
+    }
+
+    /**
+     * Directory that keeps the checksums of migration scripts between runs. Scripts that
+     * did not change are not read again to compute their checksum. No caching if unset.
+     */
+    @Config("migratory.checksum_cache_dir")
+    @DefaultNull()
+    public File getChecksumCacheDir()
+    {
+        return null;
+    }
+
+    /**
+     * Maximum size in bytes of the in-memory cache for loaded migration files. Files that
+     * did not change are then not read again when they are used for status, validation
+     * or migration. No caching if 0.
+     */
+    @Config("migratory.file_cache_size")
+    @Default("0")
+    public long getFileCacheSize()
+    {
+        return 0L;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for the lock of a personality. If set, the lock is
+     * only tried and no connection is held while waiting for the next try. If 0, wait
+     * for the lock as long as it takes.
+     */
+    @Config("migratory.lock_timeout")
+    @Default("0")
+    public long getLockTimeout()
+    {
+        return 0L;
+    }
+
+    /**
+     * Initial wait time in milliseconds between two tries to lock a personality. Doubles after
+     * every try, up to migratory.lock_backoff_max. Each wait is randomly shortened by up to half.
+     */
+    @Config("migratory.lock_backoff_min")
+    @Default("100")
+    public long getLockBackoffMin()
+    {
+        return 100L;
+    }
+
+    /**
+     * Maximum wait time in milliseconds between two tries to lock a personality.
+     */
+    @Config("migratory.lock_backoff_max")
+    @Default("5000")
+    public long getLockBackoffMax()
+    {
+        return 5000L;
+    }
+
     @Config("migratory.http.login")
     @DefaultNull()
     public String getHttpLogin()
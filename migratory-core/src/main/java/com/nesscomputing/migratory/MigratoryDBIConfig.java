@@ -55,4 +55,59 @@ public abstract class MigratoryDBIConfig
     {
         return false;
     }
+
+    /**
+     * Maximum number of physical connections kept by an embedded connection pool. 0 disables pooling,
+     * every handle then opens a new connection. Migrating personalities in parallel uses up to two
+     * connections per thread and one for the calling thread.
+     */
+    @Config("${_migratory}pool_size")
+    @Default("0")
+    public int getPoolSize()
+    {
+        return 0;
+    }
+
+    /**
+     * Query that is run on an idle pooled connection before it is reused. If unset, only closed
+     * connections are discarded.
+     */
+    @Config("${_migratory}pool_validation_query")
+    @DefaultNull
+    public String getPoolValidationQuery()
+    {
+        return null;
+    }
+
+    /**
+     * Statement that is run on a connection when it is returned to the pool, to clear session state
+     * (settings, temporary tables, prepared statements) left behind by a migration. If unset, PostgreSQL
+     * connections run DISCARD ALL and connections to other databases are only rolled back.
+     */
+    @Config("${_migratory}pool_reset_query")
+    @DefaultNull
+    public String getPoolResetQuery()
+    {
+        return null;
+    }
+
+    /**
+     * Time in milliseconds after which an unused pooled connection is closed. 0 keeps idle connections open.
+     */
+    @Config("${_migratory}pool_idle_timeout")
+    @Default("300000")
+    public long getPoolIdleTimeout()
+    {
+        return 300000L;
+    }
+
+    /**
+     * Time in milliseconds to wait for a pooled connection if all connections are in use.
+     */
+    @Config("${_migratory}pool_max_wait")
+    @Default("30000")
+    public long getPoolMaxWait()
+    {
+        return 30000L;
+    }
 }
@@ -21,7 +21,7 @@ public final class MigratoryException extends RuntimeException
 
     public enum Reason
     {
-        INIT,  INTERNAL, DATABASE, IS_READONLY, NEW_PERSONALITIES_DENIED, ROLL_FORWARD_DENIED, ROLL_BACK_DENIED, VALIDATION_FAILED;
+        INIT,  INTERNAL, DATABASE, IS_READONLY, NEW_PERSONALITIES_DENIED, ROLL_FORWARD_DENIED, ROLL_BACK_DENIED, VALIDATION_FAILED, LOCK_TIMEOUT;
     }
 
     private final Reason reason;
@@ -16,6 +16,10 @@
 package com.nesscomputing.migratory;
 
 
+import java.util.SortedSet;
+
+import com.google.common.collect.ImmutableSortedSet;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -32,6 +36,7 @@ public class StatusResult
     private final int currentVersion;
     private final int firstVersion;
     private final int lastVersion;
+    private final SortedSet<Integer> reachableVersions;
 
     public StatusResult(final String personalityName,
                         final boolean migrationPossible,
@@ -40,6 +45,18 @@ public class StatusResult
                         final int currentVersion,
                         final int firstVersion,
                         final int lastVersion)
+    {
+        this(personalityName, migrationPossible, lastState, direction, currentVersion, firstVersion, lastVersion, ImmutableSortedSet.<Integer>of());
+    }
+
+    public StatusResult(final String personalityName,
+                        final boolean migrationPossible,
+                        final MigrationState lastState,
+                        final MigrationDirection direction,
+                        final int currentVersion,
+                        final int firstVersion,
+                        final int lastVersion,
+                        final SortedSet<Integer> reachableVersions)
     {
         this.personalityName = personalityName;
         this.lastState = lastState;
@@ -48,6 +65,7 @@ public class StatusResult
         this.currentVersion = currentVersion;
         this.firstVersion = firstVersion;
         this.lastVersion = lastVersion;
+        this.reachableVersions = ImmutableSortedSet.copyOf(reachableVersions);
     }
 
     public String getPersonalityName()
@@ -85,6 +103,14 @@ public class StatusResult
         return lastVersion;
     }
 
+    /**
+     * Returns all versions that the personality can be migrated to from its current version.
+     */
+    public SortedSet<Integer> getReachableVersions()
+    {
+        return reachableVersions;
+    }
+
     @Override
     public boolean equals(final Object other)
     {
@@ -98,6 +124,7 @@ public class StatusResult
             .append(currentVersion, castOther.currentVersion)
             .append(firstVersion, castOther.firstVersion)
             .append(lastVersion, castOther.lastVersion)
+            .append(reachableVersions, castOther.reachableVersions)
             .isEquals();
     }
 
@@ -107,7 +134,7 @@ public class StatusResult
     public int hashCode()
     {
         if (hashCode == 0) {
-            hashCode = new HashCodeBuilder().append(personalityName).append(migrationPossible).append(lastState).append(direction).append(currentVersion).append(firstVersion).append(lastVersion).toHashCode();
+            hashCode = new HashCodeBuilder().append(personalityName).append(migrationPossible).append(lastState).append(direction).append(currentVersion).append(firstVersion).append(lastVersion).append(reachableVersions).toHashCode();
         }
         return hashCode;
     }
@@ -126,6 +153,7 @@ public class StatusResult
                     .append("currentVersion", currentVersion)
                     .append("firstVersion", firstVersion)
                     .append("lastVersion", lastVersion)
+                    .append("reachableVersions", reachableVersions)
                     .toString();
         }
         return toString;
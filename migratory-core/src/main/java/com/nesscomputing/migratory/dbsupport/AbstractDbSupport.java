@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.dbsupport;
+
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.google.common.io.CharStreams;
+
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.migration.sql.SqlScript;
+
+
+/**
+ * Base class for database support. New functionality is added here with a default that works for every
+ * database, so that {@link DbSupport} implementations outside of migratory keep working. Implementations
+ * that do not extend this class are wrapped by {@link DbSupportFactory#adapt(DbSupport)}.
+ */
+public abstract class AbstractDbSupport implements DbSupport
+{
+    private static final LockStrategy METADATA_TABLE_LOCK_STRATEGY = new MetadataTableLockStrategy();
+
+    /**
+     * Creates a new sql script that reads its statements from this reader while they are iterated. The
+     * default reads the whole script and hands it to {@link #sqlScriptFor(String)}.
+     */
+    public SqlScript sqlScriptFor(final Reader reader)
+    {
+        try {
+            return sqlScriptFor(CharStreams.toString(reader));
+        }
+        catch (IOException ioe) {
+            throw new MigratoryException(Reason.INTERNAL, ioe);
+        }
+    }
+
+    /**
+     * Returns the strategy to lock a personality for migration. Only called if {@link #supportsLocking()} returns
+     * true. The default locks the metadata table.
+     */
+    public LockStrategy getLockStrategy()
+    {
+        return METADATA_TABLE_LOCK_STRATEGY;
+    }
+}
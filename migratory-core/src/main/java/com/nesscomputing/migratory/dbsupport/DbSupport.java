@@ -63,7 +63,7 @@ public interface DbSupport {
     boolean supportsDdlTransactions();
 
     /**
-     * Checks whether locking using select ... for update is supported for this database.
+     * Checks whether personalities can be locked for migration on this database.
      */
     boolean supportsLocking();
 }
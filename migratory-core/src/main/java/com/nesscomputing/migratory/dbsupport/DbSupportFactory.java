@@ -21,7 +21,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Maps;
 
 import org.skife.jdbi.v2.Handle;
@@ -34,29 +36,149 @@ import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 import com.nesscomputing.migratory.dbsupport.h2.H2DbSupport;
 import com.nesscomputing.migratory.dbsupport.postgresql.PostgreSQLDbSupport;
+import com.nesscomputing.migratory.migration.sql.SqlScript;
 
 
 /**
  * Factory for obtaining the correct DbSupport instance for the current connection.
+ *
+ * The database product name is read from the JDBC metadata once per database URL and shared between
+ * all factories. If the database type is given explicitly, no connection is opened at all.
  */
 public class DbSupportFactory
 {
     private static final Logger LOG = LoggerFactory.getLogger(DbSupportFactory.class);
 
-    private final Map<String, Class<? extends DbSupport>> supportedDatabases;
+    /** Database product names by JDBC URL. */
+    private static final ConcurrentMap<String, String> DETECTED_DATABASES = Maps.newConcurrentMap();
+
+    private final Map<String, Function<IDBI, ? extends DbSupport>> supportedDatabases;
 
     public DbSupportFactory()
     {
         supportedDatabases = Maps.newHashMap();
 
-        supportedDatabases.put("H2", H2DbSupport.class);
-        supportedDatabases.put("PostgreSQL", PostgreSQLDbSupport.class);
+        supportedDatabases.put("H2", new Function<IDBI, DbSupport>() {
+            @Override
+            public DbSupport apply(final IDBI dbi)
+            {
+                return new H2DbSupport(dbi);
+            }
+        });
+
+        supportedDatabases.put("PostgreSQL", new Function<IDBI, DbSupport>() {
+            @Override
+            public DbSupport apply(final IDBI dbi)
+            {
+                return new PostgreSQLDbSupport(dbi);
+            }
+        });
     }
 
     public DbSupport getDbSupport(final IDBI dbi)
         throws MigratoryException
     {
-        final String databaseProductname = dbi.withHandle(new HandleCallback<String>() {
+        return getDbSupport(dbi, null, null);
+    }
+
+    /**
+     * Returns the DbSupport for a DBI. The dbType is the database product name as reported by the JDBC driver (e.g. "H2"
+     * or "PostgreSQL"). If it is null, the product name is read from the database, or from an earlier lookup of the same
+     * dbUrl.
+     */
+    public DbSupport getDbSupport(final IDBI dbi, final String dbUrl, final String dbType)
+        throws MigratoryException
+    {
+        final String databaseProductname;
+        if (dbType != null) {
+            databaseProductname = dbType;
+        }
+        else if (dbUrl != null) {
+            final String detectedProductname = DETECTED_DATABASES.get(dbUrl);
+            if (detectedProductname != null) {
+                databaseProductname = detectedProductname;
+            }
+            else {
+                databaseProductname = detectDatabase(dbi);
+                DETECTED_DATABASES.putIfAbsent(dbUrl, databaseProductname);
+            }
+        }
+        else {
+            databaseProductname = detectDatabase(dbi);
+        }
+
+        final Function<IDBI, ? extends DbSupport> dbSupportFunction = supportedDatabases.get(databaseProductname);
+        if (dbSupportFunction == null) {
+            throw new MigratoryException(Reason.DATABASE, "Database %s is not supported!", databaseProductname);
+        }
+
+        final DbSupport dbSupport = adapt(dbSupportFunction.apply(dbi));
+        LOG.trace("Retrieved {} for {}", dbSupport.getClass().getCanonicalName(), databaseProductname);
+        return dbSupport;
+    }
+
+    /**
+     * Returns the database support as an {@link AbstractDbSupport}. Implementations that do not extend it are
+     * wrapped, so that they get the defaults for everything that was added to database support after they were written.
+     */
+    public static AbstractDbSupport adapt(final DbSupport dbSupport)
+    {
+        if (dbSupport == null || dbSupport instanceof AbstractDbSupport) {
+            return (AbstractDbSupport) dbSupport;
+        }
+        return new DbSupportAdapter(dbSupport);
+    }
+
+    public void addDbSupport(final String dbName, final Function<IDBI, ? extends DbSupport> dbSupportFunction)
+    {
+        supportedDatabases.put(dbName, dbSupportFunction);
+        LOG.debug("Registered {} for {}", dbSupportFunction, dbName);
+    }
+
+    /**
+     * Registers a DbSupport class. The class must have a public constructor that takes an IDBI,
+     * it is looked up once here.
+     */
+    public void addDbSupport(final String dbName, final Class<? extends DbSupport> dbSupportClazz)
+    {
+        final Constructor<? extends DbSupport> c;
+        try {
+            c = dbSupportClazz.getConstructor(IDBI.class);
+        }
+        catch (SecurityException se) {
+            throw new MigratoryException(Reason.INTERNAL, se);
+        }
+        catch (NoSuchMethodException nsme) {
+            throw new MigratoryException(Reason.INTERNAL, nsme);
+        }
+
+        supportedDatabases.put(dbName, new Function<IDBI, DbSupport>() {
+            @Override
+            public DbSupport apply(final IDBI dbi)
+            {
+                try {
+                    return c.newInstance(dbi);
+                }
+                catch (IllegalArgumentException iae) {
+                    throw new MigratoryException(Reason.INTERNAL, iae);
+                }
+                catch (InstantiationException ie) {
+                    throw new MigratoryException(Reason.INTERNAL, ie);
+                }
+                catch (IllegalAccessException iae) {
+                    throw new MigratoryException(Reason.INTERNAL, iae);
+                }
+                catch (InvocationTargetException ite) {
+                    throw new MigratoryException(Reason.INTERNAL, ite.getTargetException());
+                }
+            }
+        });
+        LOG.debug("Registered {} for {}", dbSupportClazz.getCanonicalName(), dbName);
+    }
+
+    private String detectDatabase(final IDBI dbi)
+    {
+        return dbi.withHandle(new HandleCallback<String>() {
            @Override
            public String withHandle(final Handle handle) throws SQLException, MigratoryException {
 
@@ -67,41 +189,63 @@ public class DbSupportFactory
                return databaseMetaData.getDatabaseProductName();
            }
         });
+    }
 
-        final Class<? extends DbSupport> dbSupportClazz = supportedDatabases.get(databaseProductname);
-        if (dbSupportClazz == null) {
-            throw new MigratoryException(Reason.DATABASE, "Database %s is not supported!", databaseProductname);
-        }
+    private static class DbSupportAdapter extends AbstractDbSupport
+    {
+        private final DbSupport dbSupport;
 
-        LOG.trace("Retrieved {} for {}", dbSupportClazz.getCanonicalName(), databaseProductname);
+        DbSupportAdapter(final DbSupport dbSupport)
+        {
+            this.dbSupport = dbSupport;
+        }
 
-        try {
-            final Constructor<? extends DbSupport> c = dbSupportClazz.getConstructor(IDBI.class);
-            return c.newInstance(dbi);
+        @Override
+        public SqlScript sqlScriptFor(final String rawSql)
+        {
+            return dbSupport.sqlScriptFor(rawSql);
         }
-        catch (SecurityException se) {
-            throw new MigratoryException(Reason.INTERNAL, se);
+
+        @Override
+        public SqlScript createCleanScript(final Handle handle) throws SQLException
+        {
+            return dbSupport.createCleanScript(handle);
         }
-        catch (NoSuchMethodException nsme) {
-            throw new MigratoryException(Reason.INTERNAL, nsme);
+
+        @Override
+        public String getDatabaseType()
+        {
+            return dbSupport.getDatabaseType();
         }
-        catch (IllegalArgumentException iae) {
-            throw new MigratoryException(Reason.INTERNAL, iae);
+
+        @Override
+        public boolean tableExists(final String table)
+        {
+            return dbSupport.tableExists(table);
         }
-        catch (InstantiationException ie) {
-            throw new MigratoryException(Reason.INTERNAL, ie);
+
+        @Override
+        public boolean columnExists(final String table, final String column)
+        {
+            return dbSupport.columnExists(table, column);
         }
-        catch (IllegalAccessException iae) {
-            throw new MigratoryException(Reason.INTERNAL, iae);
+
+        @Override
+        public String getCurrentSchema(final Handle handle) throws SQLException
+        {
+            return dbSupport.getCurrentSchema(handle);
         }
-        catch (InvocationTargetException ite) {
-            throw new MigratoryException(Reason.INTERNAL, ite.getTargetException());
+
+        @Override
+        public boolean supportsDdlTransactions()
+        {
+            return dbSupport.supportsDdlTransactions();
         }
-    }
 
-    public void addDbSupport(final String dbName, final Class<? extends DbSupport> dbSupportClazz)
-    {
-        supportedDatabases.put(dbName, dbSupportClazz);
-        LOG.debug("Registered {} for {}", dbSupportClazz.getCanonicalName(), dbName);
+        @Override
+        public boolean supportsLocking()
+        {
+            return dbSupport.supportsLocking();
+        }
     }
 }
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.dbsupport;
+
+
+import org.skife.jdbi.v2.Handle;
+
+/**
+ * Keeps concurrent migrations of the same personality apart.
+ */
+public interface LockStrategy
+{
+    /**
+     * Locks a personality. The handle has an open transaction, the lock must be held
+     * until this transaction commits or rolls back.
+     */
+    void lock(Handle handle, String metadataTableName, String personalityName);
+
+    /**
+     * Tries to lock a personality. Returns false if another transaction holds the lock. A strategy that can
+     * not try may wait for the lock and return true.
+     */
+    boolean tryLock(Handle handle, String metadataTableName, String personalityName);
+}
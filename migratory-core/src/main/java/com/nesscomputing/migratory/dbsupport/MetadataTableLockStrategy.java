@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.dbsupport;
+
+
+import org.skife.jdbi.v2.Handle;
+
+import com.nesscomputing.migratory.metadata.MetadataManager;
+
+/**
+ * Locks the metadata table itself, using the "lock" template for the database. Depending on the
+ * database, this may block readers of the metadata table and migrations of other personalities
+ * while the lock is held.
+ *
+ * This strategy can not try the lock, {@link #tryLock(Handle, String, String)} waits for it.
+ */
+public class MetadataTableLockStrategy implements LockStrategy
+{
+    @Override
+    public void lock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        handle.createStatement(MetadataManager.METADATA_PREFIX + "lock")
+            .bind("personality_name", personalityName)
+            .execute();
+    }
+
+    @Override
+    public boolean tryLock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        lock(handle, metadataTableName, personalityName);
+        return true;
+    }
+}
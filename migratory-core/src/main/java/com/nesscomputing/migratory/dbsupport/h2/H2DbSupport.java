@@ -16,6 +16,7 @@
 package com.nesscomputing.migratory.dbsupport.h2;
 
 
+import java.io.Reader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
@@ -26,7 +27,8 @@ import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
 import org.skife.jdbi.v2.tweak.HandleCallback;
 
-import com.nesscomputing.migratory.dbsupport.DbSupport;
+import com.nesscomputing.migratory.dbsupport.AbstractDbSupport;
+import com.nesscomputing.migratory.dbsupport.LockStrategy;
 import com.nesscomputing.migratory.migration.sql.SqlScript;
 import com.nesscomputing.migratory.migration.sql.SqlStatement;
 
@@ -34,11 +36,12 @@ import com.nesscomputing.migratory.migration.sql.SqlStatement;
 /**
  * H2 database specific support
  */
-public class H2DbSupport implements DbSupport
+public class H2DbSupport extends AbstractDbSupport
 {
     public static final String H2_TEMPLATE_PREFIX = "#h2_support:";
 
     private final IDBI dbi;
+    private final LockStrategy lockStrategy = new H2LockRowStrategy(this);
 
     /**
      * Creates a new instance.
@@ -115,12 +118,24 @@ public class H2DbSupport implements DbSupport
         return true;
     }
 
+    @Override
+    public LockStrategy getLockStrategy()
+    {
+        return lockStrategy;
+    }
+
     @Override
     public SqlScript sqlScriptFor(final String sqlScriptSource)
     {
         return new SqlScript(sqlScriptSource);
     }
 
+    @Override
+    public SqlScript sqlScriptFor(final Reader reader)
+    {
+        return new SqlScript(reader);
+    }
+
     @Override
     public SqlScript createCleanScript(final Handle handle)  throws SQLException
     {
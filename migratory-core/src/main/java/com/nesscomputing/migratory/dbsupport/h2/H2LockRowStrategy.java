@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.dbsupport.h2;
+
+
+import java.sql.SQLException;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+import org.skife.jdbi.v2.util.StringMapper;
+
+import com.nesscomputing.migratory.dbsupport.DbSupport;
+import com.nesscomputing.migratory.dbsupport.LockStrategy;
+import com.nesscomputing.migratory.dbsupport.MetadataTableLockStrategy;
+import com.nesscomputing.migratory.metadata.MetadataManager;
+
+/**
+ * Locks a personality by writing its row in the lock table (&lt;metadata table&gt;_lock). Readers of the
+ * metadata table are never blocked.
+ *
+ * Row locks only keep unrelated personalities apart if the database runs with MVCC=TRUE. Without MVCC, H2 locks
+ * the whole lock table for every write, so this strategy locks the metadata table like older versions did. The
+ * metadata table is also locked until version 2 of the metadata personality, which creates the lock table, is
+ * migrated. With row locks, the rows of the personality in the metadata table are locked as well, which keeps
+ * older versions of migratory that only lock those rows apart.
+ *
+ * H2 can not try a lock, {@link #tryLock(Handle, String, String)} returns false once the lock timeout of
+ * the database session expires.
+ */
+public class H2LockRowStrategy implements LockStrategy
+{
+    /** H2 error code for "Timeout trying to lock table". */
+    private static final int LOCK_TIMEOUT_ERROR_CODE = 50200;
+
+    private final DbSupport dbSupport;
+    private final LockStrategy fallbackStrategy = new MetadataTableLockStrategy();
+
+    private volatile boolean lockTableExists = false;
+    private volatile Boolean mvcc = null;
+
+    public H2LockRowStrategy(final DbSupport dbSupport)
+    {
+        this.dbSupport = dbSupport;
+    }
+
+    @Override
+    public void lock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        if (!lockTableExists) {
+            lockTableExists = dbSupport.tableExists(metadataTableName + "_lock");
+        }
+
+        if (mvcc == null) {
+            mvcc = "TRUE".equalsIgnoreCase(handle.createQuery(MetadataManager.METADATA_PREFIX + "mvcc")
+                                           .map(StringMapper.FIRST)
+                                           .first());
+        }
+
+        if (lockTableExists && mvcc) {
+            handle.createStatement(MetadataManager.METADATA_PREFIX + "lock_row")
+                .bind("personality_name", personalityName)
+                .execute();
+        }
+        fallbackStrategy.lock(handle, metadataTableName, personalityName);
+    }
+
+    @Override
+    public boolean tryLock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        try {
+            lock(handle, metadataTableName, personalityName);
+            return true;
+        }
+        catch (UnableToExecuteStatementException utese) {
+            final Throwable cause = utese.getCause();
+            if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == LOCK_TIMEOUT_ERROR_CODE) {
+                return false;
+            }
+            throw utese;
+        }
+    }
+}
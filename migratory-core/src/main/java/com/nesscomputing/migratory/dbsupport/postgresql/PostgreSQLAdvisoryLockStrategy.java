@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.dbsupport.postgresql;
+
+
+import java.sql.SQLException;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+import org.skife.jdbi.v2.util.IntegerMapper;
+
+import com.nesscomputing.migratory.dbsupport.LockStrategy;
+import com.nesscomputing.migratory.metadata.MetadataManager;
+
+/**
+ * Locks a personality with a transaction scoped advisory lock. Readers of the metadata table are never blocked
+ * and different personalities can be migrated at the same time.
+ *
+ * The lock key combines the hash codes of the metadata table name and the personality name. Two personalities
+ * whose keys collide only wait for each other.
+ *
+ * Older versions of migratory lock the whole metadata table (LOCK TABLE in ACCESS EXCLUSIVE mode) and know nothing
+ * about the advisory lock. To keep them apart during a rolling upgrade, this strategy also takes an ACCESS SHARE
+ * lock on the metadata table. That lock waits for an older migrator, but does not conflict with readers or with
+ * other migrators that use this strategy. It can be dropped once no older version of migratory runs against the
+ * database any longer.
+ */
+public class PostgreSQLAdvisoryLockStrategy implements LockStrategy
+{
+    /** PostgreSQL SQL state for "lock_not_available". */
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    @Override
+    public void lock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        handle.createStatement(MetadataManager.METADATA_PREFIX + "share_lock").execute();
+
+        handle.createStatement(MetadataManager.METADATA_PREFIX + "advisory_lock")
+            .bind("lock_key", getLockKey(metadataTableName, personalityName))
+            .execute();
+    }
+
+    @Override
+    public boolean tryLock(final Handle handle, final String metadataTableName, final String personalityName)
+    {
+        try {
+            handle.createStatement(MetadataManager.METADATA_PREFIX + "try_share_lock").execute();
+        }
+        catch (UnableToExecuteStatementException utese) {
+            final Throwable cause = utese.getCause();
+            if (cause instanceof SQLException && LOCK_NOT_AVAILABLE.equals(((SQLException) cause).getSQLState())) {
+                return false;
+            }
+            throw utese;
+        }
+
+        return handle.createQuery(MetadataManager.METADATA_PREFIX + "try_advisory_lock")
+            .bind("lock_key", getLockKey(metadataTableName, personalityName))
+            .map(IntegerMapper.FIRST)
+            .first() == 1;
+    }
+
+    static long getLockKey(final String metadataTableName, final String personalityName)
+    {
+        return ((long) metadataTableName.hashCode() << 32) | (personalityName.hashCode() & 0xffffffffL);
+    }
+}
@@ -16,6 +16,7 @@
 package com.nesscomputing.migratory.dbsupport.postgresql;
 
 
+import java.io.Reader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
@@ -30,14 +31,15 @@ import org.skife.jdbi.v2.util.StringMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nesscomputing.migratory.dbsupport.DbSupport;
+import com.nesscomputing.migratory.dbsupport.AbstractDbSupport;
+import com.nesscomputing.migratory.dbsupport.LockStrategy;
 import com.nesscomputing.migratory.migration.sql.SqlScript;
 import com.nesscomputing.migratory.migration.sql.SqlStatement;
 
 /**
  * PostgreSQL-specific support.
  */
-public class PostgreSQLDbSupport implements DbSupport
+public class PostgreSQLDbSupport extends AbstractDbSupport
 {
     private static final Logger LOG = LoggerFactory.getLogger(PostgreSQLDbSupport.class);
 
@@ -50,6 +52,7 @@ public class PostgreSQLDbSupport implements DbSupport
     };
 
     private final IDBI dbi;
+    private final LockStrategy lockStrategy = new PostgreSQLAdvisoryLockStrategy();
 
     /**
      * Creates a new instance.
@@ -116,12 +119,24 @@ public class PostgreSQLDbSupport implements DbSupport
         return true;
     }
 
+    @Override
+    public LockStrategy getLockStrategy()
+    {
+        return lockStrategy;
+    }
+
     @Override
     public SqlScript sqlScriptFor(final String sqlScriptSource)
     {
         return new PostgreSQLSqlScript(sqlScriptSource);
     }
 
+    @Override
+    public SqlScript sqlScriptFor(final Reader reader)
+    {
+        return new PostgreSQLSqlScript(reader);
+    }
+
     @Override
     public SqlScript createCleanScript(final Handle handle) throws SQLException
     {
@@ -16,9 +16,12 @@
 package com.nesscomputing.migratory.dbsupport.postgresql;
 
 
+import java.io.Reader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.StringUtils;
+
 import com.nesscomputing.migratory.migration.sql.SqlScript;
 
 
@@ -37,10 +40,23 @@ public class PostgreSQLSqlScript extends SqlScript
         super(rawSql);
     }
 
+    /**
+     * Creates a new sql script that reads its source from this reader.
+     */
+    public PostgreSQLSqlScript(final Reader reader)
+    {
+        super(reader);
+    }
+
     @Override
-    protected String changeDelimiterIfNecessary(String statement, String line, String delimiter)
+    protected String changeDelimiterIfNecessary(final CharSequence statement, final String line, final String delimiter)
     {
-        String upperCaseStatement = statement.toUpperCase();
+        // Only function definitions change the delimiter. Avoid copying every other statement.
+        if (!StringUtils.startsWithIgnoreCase(statement, "CREATE")) {
+            return delimiter;
+        }
+
+        String upperCaseStatement = statement.toString().toUpperCase();
 
         if (upperCaseStatement.startsWith("CREATE") && upperCaseStatement.contains("FUNCTION")) {
             // We have met a function definition. Let's see whether we found an 'AS'.
@@ -15,7 +15,12 @@
  */
 package com.nesscomputing.migratory.jdbi;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.Maps;
 
@@ -26,11 +31,26 @@ import org.skife.jdbi.v2.TransactionIsolationLevel;
 import org.skife.jdbi.v2.TransactionStatus;
 import org.skife.jdbi.v2.exceptions.CallbackFailedException;
 import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Wraps the DBI given by the application, adds the migratory templates and defines to all handles.
+ *
+ * While a session is open on a thread, handles for that thread share connections: {@link #open()} and
+ * {@link #withHandle(HandleCallback)} use the session handle, both inTransaction methods use
+ * the session handle if it is not in a transaction, otherwise a second session handle. Handles that
+ * {@link #open()} returns in a session can be closed as usual, the connections are closed when the session ends.
+ */
 public class MigratoryDBI implements IDBI
 {
+    private static final Logger LOG = LoggerFactory.getLogger(MigratoryDBI.class);
+
     private final IDBI delegate;
 
+    private final ThreadLocal<Session> sessions = new ThreadLocal<Session>();
+    private final AtomicLong openCount = new AtomicLong();
+
     private final MigratoryStatementLocator statementLocator = new MigratoryStatementLocator();
     private final MigratoryStatementRewriter statementRewriter = new MigratoryStatementRewriter();
 
@@ -50,7 +70,49 @@ public class MigratoryDBI implements IDBI
     @Override
     public Handle open()
     {
-        return augmentHandle(delegate.open());
+        final Session session = sessions.get();
+        if (session != null) {
+            return nonClosing(session.getHandle());
+        }
+        return openDelegate();
+    }
+
+    /**
+     * Opens a session on the current thread, or joins the session that is already open. Every call
+     * must be matched by a call to {@link #endSession()}.
+     */
+    public void beginSession()
+    {
+        final Session session = sessions.get();
+        if (session == null) {
+            sessions.set(new Session());
+        }
+        else {
+            session.depth++;
+        }
+    }
+
+    /**
+     * Leaves the session on the current thread. The last call closes the session connections.
+     */
+    public void endSession()
+    {
+        final Session session = sessions.get();
+        if (session == null) {
+            LOG.warn("endSession() without session!");
+        }
+        else if (--session.depth == 0) {
+            sessions.remove();
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the number of connections that were opened through this DBI.
+     */
+    public long getOpenCount()
+    {
+        return openCount.get();
     }
 
     public void addTemplate(final String identifier, final String rawSql)
@@ -58,14 +120,33 @@ public class MigratoryDBI implements IDBI
         statementLocator.addTemplate(identifier, rawSql);
     }
 
+    public void removeTemplate(final String identifier)
+    {
+        statementLocator.removeTemplate(identifier);
+    }
+
     public void addDefine(final String key, final Object value)
     {
         defines.put(key, value);
     }
 
+    public MigratoryStatementLocator getStatementLocator()
+    {
+        return statementLocator;
+    }
+
     @Override
     public <ReturnType> ReturnType inTransaction(final TransactionCallback<ReturnType> callback) throws CallbackFailedException
     {
+        final Session session = sessions.get();
+        if (session != null) {
+            final Handle handle = session.getTransactionHandle();
+            if (handle != null) {
+                return handle.inTransaction(callback);
+            }
+        }
+
+        openCount.incrementAndGet();
         return delegate.inTransaction(new TransactionCallback<ReturnType>() {
                 @Override
                 public ReturnType inTransaction(final Handle handle, final TransactionStatus transactionStatus) throws Exception
@@ -78,6 +159,17 @@ public class MigratoryDBI implements IDBI
     @Override
     public <ReturnType> ReturnType withHandle(final HandleCallback<ReturnType> callback) throws CallbackFailedException
     {
+        final Session session = sessions.get();
+        if (session != null) {
+            try {
+                return callback.withHandle(nonClosing(session.getHandle()));
+            }
+            catch (Exception e) {
+                throw new CallbackFailedException(e);
+            }
+        }
+
+        openCount.incrementAndGet();
         return delegate.withHandle(new HandleCallback<ReturnType>() {
                 @Override
                 public ReturnType withHandle(final Handle handle) throws Exception
@@ -90,6 +182,15 @@ public class MigratoryDBI implements IDBI
     @Override
     public <ReturnType> ReturnType inTransaction(final TransactionIsolationLevel transactionIsolationLevel, final TransactionCallback<ReturnType> callback) throws CallbackFailedException
     {
+        final Session session = sessions.get();
+        if (session != null) {
+            final Handle handle = session.getTransactionHandle();
+            if (handle != null) {
+                return handle.inTransaction(transactionIsolationLevel, callback);
+            }
+        }
+
+        openCount.incrementAndGet();
         return delegate.inTransaction(transactionIsolationLevel, new TransactionCallback<ReturnType>() {
             @Override
             public ReturnType inTransaction(final Handle handle, final TransactionStatus transactionStatus) throws Exception
@@ -99,6 +200,36 @@ public class MigratoryDBI implements IDBI
         });
     }
 
+    private Handle openDelegate()
+    {
+        openCount.incrementAndGet();
+        return augmentHandle(delegate.open());
+    }
+
+    /**
+     * Returns a handle that ignores {@link Handle#close()}, so that code written for a handle of its own
+     * does not close the session handle.
+     */
+    private static Handle nonClosing(final Handle handle)
+    {
+        return (Handle) Proxy.newProxyInstance(Handle.class.getClassLoader(), new Class<?> [] { Handle.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object [] args) throws Throwable
+            {
+                if ("close".equals(method.getName()) && method.getParameterTypes().length == 0) {
+                    return null;
+                }
+
+                try {
+                    return method.invoke(handle, args);
+                }
+                catch (InvocationTargetException ite) {
+                    throw ite.getCause();
+                }
+            }
+        });
+    }
+
     protected Handle augmentHandle(final Handle handle)
     {
         handle.setStatementLocator(statementLocator);
@@ -125,4 +256,58 @@ public class MigratoryDBI implements IDBI
     public void close(Object sqlObject) {
         delegate.close(sqlObject);
     }
+
+    /**
+     * The connections of a session. Only used by the thread that opened it.
+     */
+    private final class Session
+    {
+        private int depth = 1;
+
+        private Handle handle = null;
+        private Handle secondHandle = null;
+
+        private Handle getHandle()
+        {
+            if (handle == null) {
+                handle = openDelegate();
+            }
+            return handle;
+        }
+
+        /**
+         * Returns a session handle that is not in a transaction, or null if both are.
+         */
+        private Handle getTransactionHandle()
+        {
+            if (!getHandle().isInTransaction()) {
+                return handle;
+            }
+            if (secondHandle == null) {
+                secondHandle = openDelegate();
+            }
+            return secondHandle.isInTransaction() ? null : secondHandle;
+        }
+
+        private void close()
+        {
+            close(handle);
+            close(secondHandle);
+        }
+
+        private void close(final Handle sessionHandle)
+        {
+            if (sessionHandle != null) {
+                try {
+                    if (sessionHandle.isInTransaction()) {
+                        LOG.warn("Session ended with open transaction, rolling back!");
+                        sessionHandle.rollback();
+                    }
+                }
+                finally {
+                    sessionHandle.close();
+                }
+            }
+        }
+    }
 }
@@ -15,10 +15,13 @@
  */
 package com.nesscomputing.migratory.jdbi;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.net.URL;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
@@ -40,9 +43,26 @@ public class MigratoryStatementLocator implements StatementLocator
 
     private final Map<String, String> sql = new ConcurrentHashMap<String, String>();
 
+    /** Parsed template groups, keyed by db_type and group name. */
+    private final ConcurrentMap<String, StringTemplateGroup> templateGroups = new ConcurrentHashMap<String, StringTemplateGroup>();
+
+    /** Parsed template prototypes, keyed by statement name (for @T statements) or db_type and file name (for plain # statements). */
+    private final ConcurrentMap<String, StringTemplate> templates = new ConcurrentHashMap<String, StringTemplate>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     public void addTemplate(final String identifier, final String rawSql)
     {
         sql.put(identifier, rawSql);
+        // The statement might have been registered and used before with different contents.
+        templates.remove(identifier);
+    }
+
+    public void removeTemplate(final String identifier)
+    {
+        sql.remove(identifier);
+        templates.remove(identifier);
     }
 
     @Override
@@ -66,7 +86,14 @@ public class MigratoryStatementLocator implements StatementLocator
 
             // @T is a template.
             if (statementName.charAt(1) == 'T') {
-                return templatize(rawSql, context);
+                StringTemplate prototype = templates.get(statementName);
+                if (prototype == null) {
+                    prototype = cacheTemplate(statementName, new StringTemplate(rawSql, AngleBracketTemplateLexer.class));
+                }
+                else {
+                    cacheHits.incrementAndGet();
+                }
+                return templatize(prototype, context);
             }
             else {
                 context.setAttribute(MigratoryStatementRewriter.SKIP_REWRITE, Boolean.TRUE);
@@ -82,20 +109,32 @@ public class MigratoryStatementLocator implements StatementLocator
 
             final String sqlLocation = SQL_LOCATION + context.getAttribute("db_type") + "/" + statementNames[0] + ".st";
 
-            LOG.trace("Loading SQL: {}", sqlLocation);
-            final URL location = Resources.getResource(MigratoryStatementLocator.class, sqlLocation);
-            if (location == null) {
-                throw new IllegalArgumentException("Location '" + sqlLocation + "' does not exist!");
-            }
-            final String rawSql = Resources.toString(location, Charsets.UTF_8);
-
             if (statementNames.length == 1) {
                 // Plain string template file. Just run it.
-                return templatize(rawSql, context);
+                StringTemplate prototype = templates.get(sqlLocation);
+                if (prototype == null) {
+                    prototype = cacheTemplate(sqlLocation, new StringTemplate(loadSql(sqlLocation), AngleBracketTemplateLexer.class));
+                }
+                else {
+                    cacheHits.incrementAndGet();
+                }
+                return templatize(prototype, context);
             }
             else {
-                final StringTemplateGroup group = new StringTemplateGroup(new StringReader(rawSql), AngleBracketTemplateLexer.class);
-                LOG.trace("Found {} in {}", group.getTemplateNames(), location);
+                StringTemplateGroup group = templateGroups.get(sqlLocation);
+                if (group == null) {
+                    cacheMisses.incrementAndGet();
+                    final StringTemplateGroup newGroup = new StringTemplateGroup(new StringReader(loadSql(sqlLocation)), AngleBracketTemplateLexer.class);
+                    LOG.trace("Found {} in {}", newGroup.getTemplateNames(), sqlLocation);
+
+                    group = templateGroups.putIfAbsent(sqlLocation, newGroup);
+                    if (group == null) {
+                        group = newGroup;
+                    }
+                }
+                else {
+                    cacheHits.incrementAndGet();
+                }
 
                 final StringTemplate template = group.getInstanceOf(statementNames[1]);
                 template.setAttributes(context.getAttributes());
@@ -112,12 +151,44 @@ public class MigratoryStatementLocator implements StatementLocator
         }
     }
 
-    private String templatize(final String rawSql, final StatementContext context)
+    /**
+     * Returns the number of statements that were served from an already parsed template.
+     */
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of statements that required loading and parsing a template.
+     */
+    public long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+
+    private String loadSql(final String sqlLocation) throws IOException
+    {
+        LOG.trace("Loading SQL: {}", sqlLocation);
+        final URL location = Resources.getResource(MigratoryStatementLocator.class, sqlLocation);
+        if (location == null) {
+            throw new IllegalArgumentException("Location '" + sqlLocation + "' does not exist!");
+        }
+        return Resources.toString(location, Charsets.UTF_8);
+    }
+
+    private StringTemplate cacheTemplate(final String key, final StringTemplate prototype)
     {
-        // This is not very effective but then again, most templates will be used only once and
-        // this code is not intended to be run 1000 times a second anyway.
+        cacheMisses.incrementAndGet();
+        final StringTemplate existing = templates.putIfAbsent(key, prototype);
+        return existing == null ? prototype : existing;
+    }
 
-        final StringTemplate template = new StringTemplate(rawSql, AngleBracketTemplateLexer.class);
+    private String templatize(final StringTemplate prototype, final StatementContext context)
+    {
+        // The prototype holds the parsed template, every statement gets its own
+        // copy so that attributes do not leak between statements and threads.
+        final StringTemplate template = prototype.getInstanceOf();
         template.setAttributes(context.getAttributes());
         final String sql = template.toString();
 
@@ -0,0 +1,427 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.jdbi;
+
+import static java.lang.String.format;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import org.apache.commons.lang3.StringUtils;
+import org.skife.jdbi.v2.tweak.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small, bounded connection pool for DBI instances built from a {@link com.nesscomputing.migratory.MigratoryDBIConfig}.
+ *
+ * At most poolSize physical connections are open at any time. Connections are handed out wrapped in a proxy whose close()
+ * returns the connection to the pool. Idle connections are validated before they are reused and closed after they have
+ * been unused for longer than the idle timeout. If all connections are in use, a caller waits up to maxWait milliseconds
+ * for a connection to be returned. Returned connections are rolled back and, if a reset query is given, the query is run
+ * on them to clear the session state that a migration may have left behind.
+ */
+public class PooledConnectionFactory implements ConnectionFactory
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PooledConnectionFactory.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 300000L;
+    public static final long DEFAULT_MAX_WAIT = 30000L;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int poolSize;
+    private final String validationQuery;
+    private final String resetQuery;
+    private final long idleTimeout;
+    private final long maxWait;
+
+    /** Most recently returned connection first. */
+    private final LinkedList<IdleConnection> idleConnections = Lists.newLinkedList();
+    private int openCount = 0;
+    private boolean closed = false;
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    public PooledConnectionFactory(final String url, final String user, final String password,
+                                   final int poolSize, final String validationQuery, final long idleTimeout, final long maxWait)
+    {
+        this(url, user, password, poolSize, validationQuery, getDefaultResetQuery(url), idleTimeout, maxWait);
+    }
+
+    public PooledConnectionFactory(final String url, final String user, final String password,
+                                   final int poolSize, final String validationQuery, final String resetQuery,
+                                   final long idleTimeout, final long maxWait)
+    {
+        Preconditions.checkArgument(url != null, "url can not be null!");
+        Preconditions.checkArgument(poolSize > 0, "pool size must be at least 1!");
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.validationQuery = validationQuery;
+        this.resetQuery = resetQuery;
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Returns the statement that clears the session state of a connection for the database behind the URL,
+     * or null if the database has none.
+     */
+    public static String getDefaultResetQuery(final String url)
+    {
+        return StringUtils.startsWith(url, "jdbc:postgresql:") ? "DISCARD ALL" : null;
+    }
+
+    @Override
+    public Connection openConnection() throws SQLException
+    {
+        final long deadline = System.currentTimeMillis() + maxWait;
+
+        while (true) {
+            Connection connection = null;
+            boolean create = false;
+            final List<Connection> evicted;
+
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool has been closed!");
+                }
+
+                evicted = evictIdle();
+                if (!idleConnections.isEmpty()) {
+                    connection = idleConnections.removeFirst().getConnection();
+                }
+                else if (openCount < poolSize) {
+                    openCount++;
+                    create = true;
+                }
+            }
+            closeAll(evicted);
+
+            if (connection != null) {
+                if (isValid(connection)) {
+                    return wrap(connection);
+                }
+                LOG.debug("Discarding pooled connection that failed validation.");
+                discard(connection);
+            }
+            else if (create) {
+                return wrap(createConnection());
+            }
+            else {
+                awaitConnection(deadline);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are currently in use are closed when they are returned.
+     */
+    public void close()
+    {
+        final List<Connection> idle = Lists.newArrayList();
+        synchronized (this) {
+            closed = true;
+            for (IdleConnection idleConnection : idleConnections) {
+                idle.add(idleConnection.getConnection());
+            }
+            openCount -= idleConnections.size();
+            idleConnections.clear();
+            notifyAll();
+        }
+        closeAll(idle);
+    }
+
+    /**
+     * Returns the number of physical connections that are currently open, in use or idle.
+     */
+    public synchronized int getOpenCount()
+    {
+        return openCount;
+    }
+
+    public synchronized int getIdleCount()
+    {
+        return idleConnections.size();
+    }
+
+    /**
+     * Returns the number of physical connections that this pool has opened since it was created.
+     */
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    private Connection createConnection() throws SQLException
+    {
+        boolean success = false;
+        try {
+            final Connection connection = DriverManager.getConnection(url, user, password);
+            createdCount.incrementAndGet();
+            success = true;
+            return connection;
+        }
+        finally {
+            if (!success) {
+                synchronized (this) {
+                    openCount--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized void awaitConnection(final long deadline) throws SQLException
+    {
+        // Something may have been returned between giving up the lock in openConnection and getting it here.
+        if (closed || !idleConnections.isEmpty() || openCount < poolSize) {
+            return;
+        }
+
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L) {
+            throw new SQLException(format("Timed out after %d ms waiting for one of %d pooled connections!", maxWait, poolSize));
+        }
+
+        try {
+            wait(remaining);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection!", ie);
+        }
+    }
+
+    /**
+     * Removes all connections that have been idle for longer than the idle timeout. Must be called holding the lock,
+     * the returned connections must be closed after releasing it.
+     */
+    private List<Connection> evictIdle()
+    {
+        if (idleTimeout <= 0L || idleConnections.isEmpty()) {
+            return null;
+        }
+
+        final long oldest = System.currentTimeMillis() - idleTimeout;
+        List<Connection> evicted = null;
+
+        // The least recently returned connections are at the end of the list.
+        while (!idleConnections.isEmpty() && idleConnections.getLast().getLastUsed() < oldest) {
+            if (evicted == null) {
+                evicted = Lists.newArrayList();
+            }
+            evicted.add(idleConnections.removeLast().getConnection());
+            openCount--;
+        }
+
+        if (evicted != null) {
+            LOG.debug("Evicted {} idle connections.", evicted.size());
+            notifyAll();
+        }
+        return evicted;
+    }
+
+    private boolean isValid(final Connection connection)
+    {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+
+            if (StringUtils.isNotBlank(validationQuery)) {
+                execute(connection, validationQuery);
+            }
+            return true;
+        }
+        catch (SQLException e) {
+            LOG.debug("Validation of pooled connection failed", e);
+            return false;
+        }
+    }
+
+    private static void execute(final Connection connection, final String query) throws SQLException
+    {
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute(query);
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private void release(final Connection connection)
+    {
+        boolean reusable;
+        try {
+            reusable = !connection.isClosed();
+            if (reusable && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (reusable && StringUtils.isNotBlank(resetQuery)) {
+                execute(connection, resetQuery);
+            }
+        }
+        catch (SQLException e) {
+            LOG.debug("Could not reset returned connection", e);
+            reusable = false;
+        }
+
+        final List<Connection> toClose = Lists.newArrayList();
+        synchronized (this) {
+            if (reusable && !closed) {
+                idleConnections.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+            }
+            else {
+                toClose.add(connection);
+                openCount--;
+            }
+
+            final List<Connection> evicted = evictIdle();
+            if (evicted != null) {
+                toClose.addAll(evicted);
+            }
+            notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    private void discard(final Connection connection)
+    {
+        synchronized (this) {
+            openCount--;
+            notifyAll();
+        }
+        closeQuietly(connection);
+    }
+
+    private Connection wrap(final Connection connection)
+    {
+        return Connection.class.cast(Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                            new Class<?>[] { Connection.class },
+                                                            new PooledConnectionHandler(connection)));
+    }
+
+    private static void closeAll(final List<Connection> connections)
+    {
+        if (connections != null) {
+            for (Connection connection : connections) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(final Connection connection)
+    {
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+            LOG.debug("While closing pooled connection", e);
+        }
+    }
+
+    private static final class IdleConnection
+    {
+        private final Connection connection;
+        private final long lastUsed;
+
+        IdleConnection(final Connection connection, final long lastUsed)
+        {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+
+        Connection getConnection()
+        {
+            return connection;
+        }
+
+        long getLastUsed()
+        {
+            return lastUsed;
+        }
+    }
+
+    /**
+     * Returns the connection to the pool on close() instead of closing it. The proxy can not be used after that.
+     */
+    private final class PooledConnectionHandler implements InvocationHandler
+    {
+        private final Connection connection;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        PooledConnectionHandler(final Connection connection)
+        {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object [] args) throws Throwable
+        {
+            final String name = method.getName();
+
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (released.compareAndSet(false, true)) {
+                    release(connection);
+                }
+                return null;
+            }
+            else if ("isClosed".equals(name) && released.get()) {
+                return Boolean.TRUE;
+            }
+            else if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+                return System.identityHashCode(proxy);
+            }
+            else if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+                return "Pooled " + connection;
+            }
+
+            if (released.get()) {
+                throw new SQLException("Connection has already been returned to the pool!");
+            }
+
+            try {
+                return method.invoke(connection, args);
+            }
+            catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+    }
+}
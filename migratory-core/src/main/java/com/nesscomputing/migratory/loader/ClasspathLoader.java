@@ -17,27 +17,67 @@ package com.nesscomputing.migratory.loader;
 
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 
 /**
- * Loads a file from the classpath.
+ * Loads a file from the classpath. A folder is looked up in all classpath roots (directories and jars) that contain it,
+ * so the files of a folder may be spread out over multiple jars. If the same file exists in multiple roots, the first
+ * one on the classpath wins.
+ *
+ * Folder contents and resource locations are looked up only once per loader and never refreshed. Files that are added
+ * to a directory root after its folder was listed are not seen by this loader, a new loader must be created to pick them up.
  */
-public class ClasspathLoader implements MigrationLoader
+public class ClasspathLoader implements SchemeMigrationLoader, StreamingMigrationLoader
 {
+    private static final Logger LOG = LoggerFactory.getLogger(ClasspathLoader.class);
+
+    private static final Set<String> SCHEMES = ImmutableSet.of("classpath");
+
     private final LoaderManager loaderManager;
+    private final ClassLoader classLoader;
+
+    private final ConcurrentMap<String, Collection<URI>> folderIndex = new ConcurrentHashMap<String, Collection<URI>>();
+    private final ConcurrentMap<String, URL> fileIndex = new ConcurrentHashMap<String, URL>();
 
     public ClasspathLoader(final LoaderManager loaderManager)
     {
+        this(loaderManager, ClasspathLoader.class.getClassLoader());
+    }
+
+    /**
+     * Creates a loader that looks up folders and files in the roots of the given class loader.
+     */
+    public ClasspathLoader(final LoaderManager loaderManager, final ClassLoader classLoader)
+    {
+        Preconditions.checkArgument(classLoader != null, "class loader can not be null!");
+
         this.loaderManager = loaderManager;
+        this.classLoader = classLoader;
     }
 
     @Override
@@ -46,16 +86,24 @@ public class ClasspathLoader implements MigrationLoader
         return uri != null && "classpath".equals(uri.getScheme());
     }
 
+    @Override
+    public Set<String> getSchemes()
+    {
+        return SCHEMES;
+    }
+
     @Override
     public Collection<URI> loadFolder(final URI folderUri, final String pattern)
     {
-        try {
-            final URI uriLocation = Resources.getResource(this.getClass(), folderUri.getPath()).toURI();
-            return loaderManager.loadFolder(uriLocation, pattern);
-        }
-        catch (URISyntaxException e) {
-            throw new MigratoryException(Reason.INTERNAL, e);
+        final String folderPath = StringUtils.strip(folderUri.getPath(), "/");
+        final String key = folderPath + "|" + pattern;
+
+        Collection<URI> uris = folderIndex.get(key);
+        if (uris == null) {
+            uris = loadAllRoots(folderPath, pattern);
+            folderIndex.putIfAbsent(key, uris);
         }
+        return uris;
     }
 
     /**
@@ -65,11 +113,80 @@ public class ClasspathLoader implements MigrationLoader
     public String loadFile(final URI fileUri)
     {
         try {
-            final URL urlLocation = Resources.getResource(this.getClass(), fileUri.getPath());
-            return Resources.toString(urlLocation, Charsets.UTF_8);
+            return Resources.toString(getResource(fileUri), Charsets.UTF_8);
         }
         catch (IOException e) {
             throw new MigratoryException(Reason.INTERNAL, e);
         }
     }
+
+    @Override
+    public Reader openFile(final URI fileUri) throws IOException
+    {
+        return new InputStreamReader(getResource(fileUri).openStream(), Charsets.UTF_8);
+    }
+
+    private URL getResource(final URI fileUri)
+    {
+        final String filePath = fileUri.getPath();
+
+        URL urlLocation = fileIndex.get(filePath);
+        if (urlLocation == null) {
+            urlLocation = classLoader.getResource(StringUtils.stripStart(filePath, "/"));
+            Preconditions.checkArgument(urlLocation != null, "resource %s not found.", filePath);
+            fileIndex.putIfAbsent(filePath, urlLocation);
+        }
+        return urlLocation;
+    }
+
+    private Collection<URI> loadAllRoots(final String folderPath, final String pattern)
+    {
+        try {
+            final Enumeration<URL> roots = classLoader.getResources(folderPath);
+            if (!roots.hasMoreElements()) {
+                throw new MigratoryException(Reason.INTERNAL, "Could not find %s on the classpath!", folderPath);
+            }
+
+            // Keyed by file name, the first root on the classpath wins.
+            final Map<String, URI> results = Maps.newLinkedHashMap();
+            final Set<URI> seenRoots = Sets.newHashSet();
+
+            while (roots.hasMoreElements()) {
+                final URI rootUri = roots.nextElement().toURI();
+                if (!seenRoots.add(rootUri)) {
+                    continue;
+                }
+
+                final Collection<URI> uris = loaderManager.loadFolder(rootUri, pattern);
+                if (uris == null) {
+                    LOG.debug("No loader for {}, skipping.", rootUri);
+                    continue;
+                }
+
+                for (final URI uri : uris) {
+                    final String fileName = getFileName(uri);
+                    if (!results.containsKey(fileName)) {
+                        results.put(fileName, uri);
+                    }
+                    else {
+                        LOG.debug("Ignoring {}, already found at {}", uri, results.get(fileName));
+                    }
+                }
+            }
+
+            return ImmutableList.copyOf(results.values());
+        }
+        catch (IOException ioe) {
+            throw new MigratoryException(Reason.INTERNAL, ioe);
+        }
+        catch (URISyntaxException use) {
+            throw new MigratoryException(Reason.INTERNAL, use);
+        }
+    }
+
+    private static String getFileName(final URI uri)
+    {
+        final String uriString = uri.toString();
+        return uriString.substring(uriString.lastIndexOf('/') + 1);
+    }
 }
@@ -17,17 +17,23 @@ package com.nesscomputing.migratory.loader;
 
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.io.PatternFilenameFilter;
 
@@ -35,10 +41,13 @@ import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 
 /**
- * Loads arbitrary files from a file: URI.
+ * Loads arbitrary files from a file: URI. Large scripts should be read through {@link #openFile(URI)}, which
+ * streams the file instead of holding all of it in memory.
  */
-public class FileLoader implements MigrationLoader
+public class FileLoader implements SchemeMigrationLoader, StampedMigrationLoader, StreamingMigrationLoader
 {
+    private static final Set<String> SCHEMES = ImmutableSet.of("file");
+
     public static final Function<File, URI> FILE_TO_URL = new Function<File, URI>() {
         @Override
         public URI apply(@Nullable final File file) {
@@ -59,6 +68,12 @@ public class FileLoader implements MigrationLoader
         return uri != null && "file".equals(uri.getScheme());
     }
 
+    @Override
+    public Set<String> getSchemes()
+    {
+        return SCHEMES;
+    }
+
     @Override
     public Collection<URI> loadFolder(final URI folderUri, final String searchPattern)
     {
@@ -68,7 +83,11 @@ public class FileLoader implements MigrationLoader
         if (folderLocation.exists() && folderLocation.canRead()) {
             if (folderLocation.isDirectory()) {
                 final File [] files = (pattern == null) ? folderLocation.listFiles() : folderLocation.listFiles(new PatternFilenameFilter(pattern));
-                return Collections2.transform(Arrays.asList(files), FILE_TO_URL);
+                if (files == null) {
+                    throw new MigratoryException(Reason.INTERNAL, "Could not list %s!", folderUri);
+                }
+                // Copy once, a transformed view would create new URIs on every iteration.
+                return ImmutableList.copyOf(Lists.transform(Arrays.asList(files), FILE_TO_URL));
             }
             else {
                 throw new MigratoryException(Reason.INTERNAL, "%s is not a directory!", folderUri);
@@ -79,6 +98,19 @@ public class FileLoader implements MigrationLoader
         }
     }
 
+    /**
+     * Returns size and modification time of the file.
+     */
+    @Override
+    public String stampFor(final URI fileUri)
+    {
+        final File fileLocation = new File(fileUri);
+        if (!fileLocation.isFile()) {
+            return null;
+        }
+        return fileLocation.length() + ":" + fileLocation.lastModified();
+    }
+
     /**
      * This method loads a file from a file:/... URI. This is probably not what you are looking for.
      */
@@ -98,4 +130,14 @@ public class FileLoader implements MigrationLoader
             throw new MigratoryException(Reason.INTERNAL, "Can not access %s!", fileLocation);
         }
     }
+
+    @Override
+    public Reader openFile(final URI fileUri) throws IOException
+    {
+        final File fileLocation = new File(fileUri);
+        if (!fileLocation.isFile() || !fileLocation.canRead()) {
+            throw new MigratoryException(Reason.INTERNAL, "Can not access %s!", fileLocation);
+        }
+        return new InputStreamReader(new FileInputStream(fileLocation), charset);
+    }
 }
@@ -16,29 +16,59 @@
 package com.nesscomputing.migratory.loader;
 
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 
 /**
- * Loads arbitrary files from a file: URI.
+ * Loads arbitrary files from a jar: URI.
+ *
+ * Every jar is opened only once and kept open, together with an index of the files in each folder of the
+ * jar. A jar that changed on disk is opened and indexed again. The replaced jar stays open until the loader
+ * is closed, readers returned by {@link #openFile(URI)} may still stream from it.
  */
-public class JarLoader implements MigrationLoader
+public class JarLoader implements SchemeMigrationLoader, BulkMigrationLoader, StampedMigrationLoader, StreamingMigrationLoader, Closeable
 {
+    private static final Logger LOG = LoggerFactory.getLogger(JarLoader.class);
+
+    private static final Set<String> SCHEMES = ImmutableSet.of("jar");
+
     private final Charset charset;
 
+    private final ConcurrentMap<String, JarIndex> jarIndexes = new ConcurrentHashMap<String, JarIndex>();
+    private final Queue<JarIndex> replacedIndexes = new ConcurrentLinkedQueue<JarIndex>();
+
     public JarLoader(final Charset charset)
     {
         this.charset = charset;
@@ -50,6 +80,12 @@ public class JarLoader implements MigrationLoader
         return uri != null && "jar".equals(uri.getScheme());
     }
 
+    @Override
+    public Set<String> getSchemes()
+    {
+        return SCHEMES;
+    }
+
     @Override
     public Collection<URI> loadFolder(final URI location, final String searchPattern) throws IOException
     {
@@ -60,31 +96,18 @@ public class JarLoader implements MigrationLoader
         if (bangIndex > 0) {
             final String jarPath = path.substring(5, bangIndex); // strip out jar:/, all the way to the bang.
             final String basePath = "jar:" + path.substring(0, bangIndex + 2);
-            final String locationPath = path.substring(bangIndex + 2); // skip over !/
-            final JarFile jar = new JarFile(jarPath); // URI.getPath is decoded.
+            final String locationPath = stripSlashes(path.substring(bangIndex + 2)); // skip over !/
 
-            try {
-                final Enumeration<JarEntry> entries = jar.entries(); //gives ALL entries in jar
-                final Set<URI> results = Sets.newHashSet();
-
-                while(entries.hasMoreElements()) {
-                    final JarEntry entry = entries.nextElement();
-
-                    String entryName = entry.getName();
-                    if (entryName.startsWith(locationPath)) { //filter according to the path
-                        entryName = entryName.substring(locationPath.length() + 1);
-                        int checkSubdir = entryName.indexOf("/");
-                        // Skip Directories
-                        if ((!entryName.isEmpty() && checkSubdir < 0) && (pattern == null || pattern.matcher(entryName).matches())) { // NOPMD
-                            results.add(URI.create(basePath + entry.getName()));
-                        }
-                    }
+            final JarIndex jarIndex = getJarIndex(jarPath); // URI.getPath is decoded.
+            final Collection<URI> results = Sets.newHashSet();
+
+            for (final String entryName : jarIndex.getFolder(locationPath)) {
+                final String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+                if (pattern == null || pattern.matcher(fileName).matches()) {
+                    results.add(URI.create(basePath + entryName));
                 }
-                return results;
-            }
-            finally {
-                jar.close();
             }
+            return results;
         }
         else {
             throw new MigratoryException(Reason.INTERNAL, "Can not parse jar URI '%s!", location);
@@ -92,11 +115,247 @@ public class JarLoader implements MigrationLoader
     }
 
     /**
-     * This method loads a file from a file:/... URI. This is probably not what you are looking for.
+     * This method loads a file from a jar:file:/... URI. This is probably not what you are looking for.
      */
     @Override
     public String loadFile(final URI fileUri) throws IOException
     {
+        final String path = fileUri.getSchemeSpecificPart();
+        final int bangIndex = path.indexOf("!");
+        if (bangIndex > 0 && path.startsWith("file:") && path.indexOf('!', bangIndex + 1) == -1) {
+            final JarIndex jarIndex = getJarIndex(path.substring(5, bangIndex));
+            final String entryName = path.substring(bangIndex + 2);
+            final String content = jarIndex.read(entryName, charset);
+            if (content == null) {
+                throw new MigratoryException(Reason.INTERNAL, "Can not access %s!", fileUri);
+            }
+            return content;
+        }
+
+        // Nested jars or other URLs that are not backed by a local file.
         return Resources.toString(fileUri.toURL(), charset);
     }
+
+    @Override
+    public Reader openFile(final URI fileUri) throws IOException
+    {
+        final String path = fileUri.getSchemeSpecificPart();
+        final int bangIndex = path.indexOf("!");
+        if (bangIndex > 0 && path.startsWith("file:") && path.indexOf('!', bangIndex + 1) == -1) {
+            final Reader reader = getJarIndex(path.substring(5, bangIndex)).open(path.substring(bangIndex + 2), charset);
+            if (reader == null) {
+                throw new MigratoryException(Reason.INTERNAL, "Can not access %s!", fileUri);
+            }
+            return reader;
+        }
+
+        return new InputStreamReader(fileUri.toURL().openStream(), charset);
+    }
+
+    /**
+     * Returns size and modification time of the jar and the CRC of the entry. Uses the index of the jar,
+     * so a jar that was replaced on disk is opened again.
+     */
+    @Override
+    public String stampFor(final URI fileUri)
+    {
+        final String path = fileUri.getSchemeSpecificPart();
+        final int bangIndex = path.indexOf("!");
+        if (bangIndex > 0 && path.startsWith("file:") && path.indexOf('!', bangIndex + 1) == -1) {
+            try {
+                return getJarIndex(path.substring(5, bangIndex)).stampFor(path.substring(bangIndex + 2));
+            }
+            catch (IOException ioe) {
+                LOG.debug("Could not stamp {}", fileUri, ioe);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads a number of files. Each jar is checked for changes only once, all files in it are read from the same
+     * open jar.
+     */
+    @Override
+    public Map<URI, String> loadFiles(final Collection<URI> fileUris) throws IOException
+    {
+        final Map<URI, String> results = Maps.newHashMap();
+        final Map<String, JarIndex> jarIndexes = Maps.newHashMap();
+
+        for (final URI fileUri : fileUris) {
+            final String path = fileUri.getSchemeSpecificPart();
+            final int bangIndex = path.indexOf("!");
+            if (bangIndex > 0 && path.startsWith("file:") && path.indexOf('!', bangIndex + 1) == -1) {
+                final String jarPath = path.substring(5, bangIndex);
+                JarIndex jarIndex = jarIndexes.get(jarPath);
+                if (jarIndex == null) {
+                    jarIndex = getJarIndex(jarPath);
+                    jarIndexes.put(jarPath, jarIndex);
+                }
+
+                final String content = jarIndex.read(path.substring(bangIndex + 2), charset);
+                if (content == null) {
+                    throw new MigratoryException(Reason.INTERNAL, "Can not access %s!", fileUri);
+                }
+                results.put(fileUri, content);
+            }
+            else {
+                results.put(fileUri, loadFile(fileUri));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Closes all jars that were opened by this loader.
+     */
+    @Override
+    public void close()
+    {
+        for (final JarIndex jarIndex : jarIndexes.values()) {
+            jarIndex.close();
+        }
+        jarIndexes.clear();
+
+        JarIndex jarIndex;
+        while ((jarIndex = replacedIndexes.poll()) != null) {
+            jarIndex.close();
+        }
+    }
+
+    private JarIndex getJarIndex(final String jarPath) throws IOException
+    {
+        final File jarLocation = new File(jarPath);
+
+        JarIndex jarIndex = jarIndexes.get(jarPath);
+        if (jarIndex == null || !jarIndex.isCurrent(jarLocation)) {
+            final JarIndex newIndex = new JarIndex(jarLocation);
+            if (jarIndex == null) {
+                jarIndex = jarIndexes.putIfAbsent(jarPath, newIndex);
+            }
+            else if (jarIndexes.replace(jarPath, jarIndex, newIndex)) {
+                // The jar was changed on disk. Open readers or other threads may still use the old index.
+                replacedIndexes.add(jarIndex);
+                jarIndex = null;
+            }
+            else {
+                jarIndex = jarIndexes.get(jarPath);
+            }
+
+            if (jarIndex == null) {
+                jarIndex = newIndex;
+            }
+            else {
+                // Another thread opened the jar first.
+                newIndex.close();
+            }
+        }
+        return jarIndex;
+    }
+
+    private static String stripSlashes(final String path)
+    {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    /**
+     * An open jar file and the names of all files in each of its folders.
+     */
+    private static final class JarIndex
+    {
+        private final JarFile jarFile;
+        private final long lastModified;
+        private final long length;
+        private final Map<String, List<String>> folders;
+
+        private JarIndex(final File jarLocation) throws IOException
+        {
+            this.lastModified = jarLocation.lastModified();
+            this.length = jarLocation.length();
+            this.jarFile = new JarFile(jarLocation);
+
+            final Map<String, List<String>> folders = Maps.newHashMap();
+            final Enumeration<JarEntry> entries = jarFile.entries(); //gives ALL entries in jar
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                final String entryName = entry.getName();
+                final int slashIndex = entryName.lastIndexOf('/');
+                final String folder = (slashIndex == -1) ? "" : entryName.substring(0, slashIndex);
+
+                List<String> folderEntries = folders.get(folder);
+                if (folderEntries == null) {
+                    folderEntries = Lists.newArrayList();
+                    folders.put(folder, folderEntries);
+                }
+                folderEntries.add(entryName);
+            }
+            this.folders = folders;
+
+            LOG.debug("Indexed {} folders in {}", folders.size(), jarLocation);
+        }
+
+        private boolean isCurrent(final File jarLocation)
+        {
+            return lastModified == jarLocation.lastModified() && length == jarLocation.length();
+        }
+
+        private List<String> getFolder(final String folder)
+        {
+            final List<String> folderEntries = folders.get(folder);
+            return folderEntries == null ? Collections.<String>emptyList() : folderEntries;
+        }
+
+        private String stampFor(final String entryName)
+        {
+            final JarEntry entry = jarFile.getJarEntry(entryName);
+            if (entry == null || entry.getCrc() == -1) {
+                return null;
+            }
+            return length + ":" + lastModified + ":" + entry.getCrc();
+        }
+
+        private Reader open(final String entryName, final Charset charset) throws IOException
+        {
+            final JarEntry entry = jarFile.getJarEntry(entryName);
+            return entry == null ? null : new InputStreamReader(jarFile.getInputStream(entry), charset);
+        }
+
+        private String read(final String entryName, final Charset charset) throws IOException
+        {
+            final JarEntry entry = jarFile.getJarEntry(entryName);
+            if (entry == null) {
+                return null;
+            }
+
+            final InputStream is = jarFile.getInputStream(entry);
+            try {
+                return CharStreams.toString(new InputStreamReader(is, charset));
+            }
+            finally {
+                is.close();
+            }
+        }
+
+        private void close()
+        {
+            try {
+                jarFile.close();
+            }
+            catch (IOException ioe) {
+                LOG.debug("While closing {}", jarFile.getName(), ioe);
+            }
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the contents of loaded files in memory. Files are identified by their URI and a stamp that changes whenever
+ * the file changes, see {@link StampedMigrationLoader}. Files from loaders that can not stamp them are never cached.
+ *
+ * The cache holds at most a given number of bytes (two bytes per character) and drops the least recently used
+ * files first.
+ */
+public class LoadedFileCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadedFileCache.class);
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<URI, CachedFile> files = new LinkedHashMap<URI, CachedFile>(16, 0.75f, true);
+
+    private long bytes = 0L;
+    private long hitCount = 0L;
+    private long missCount = 0L;
+    private long evictionCount = 0L;
+
+    public LoadedFileCache(final long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached contents of a file or null if the file is not in the cache or has changed.
+     */
+    public synchronized String get(final URI location, final String stamp)
+    {
+        final CachedFile cachedFile = files.get(location);
+        if (cachedFile != null && cachedFile.stamp.equals(stamp)) {
+            hitCount++;
+            return cachedFile.content;
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Adds the contents of a file to the cache.
+     */
+    public synchronized void put(final URI location, final String stamp, final String content)
+    {
+        final long size = sizeOf(content);
+        if (size > maxBytes) {
+            LOG.trace("Not caching {}, {} bytes is larger than the cache.", location, size);
+            return;
+        }
+
+        final CachedFile oldFile = files.put(location, new CachedFile(stamp, content));
+        if (oldFile != null) {
+            bytes -= sizeOf(oldFile.content);
+        }
+        bytes += size;
+
+        for (final Iterator<CachedFile> it = files.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            bytes -= sizeOf(it.next().content);
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void clear()
+    {
+        files.clear();
+        bytes = 0L;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public synchronized int getFileCount()
+    {
+        return files.size();
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("LoadedFileCache[files=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                             files.size(), bytes, maxBytes, hitCount, missCount, evictionCount);
+    }
+
+    private static long sizeOf(final String content)
+    {
+        return 2L * content.length();
+    }
+
+    private static final class CachedFile
+    {
+        private final String stamp;
+        private final String content;
+
+        private CachedFile(final String stamp, final String content)
+        {
+            this.stamp = stamp;
+            this.content = content;
+        }
+    }
+}
@@ -16,45 +16,127 @@
 package com.nesscomputing.migratory.loader;
 
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 
 /**
  * Loads a resource from a remote or local location.
+ *
+ * Loaders are asked in order of their priority (highest first), loaders with the same priority in the order
+ * in which they were added. Loaders that implement {@link SchemeMigrationLoader} are remembered for their
+ * schemes, all further URIs with the same scheme go straight to that loader.
  */
-public class LoaderManager implements MigrationLoader
+public class LoaderManager implements StampedMigrationLoader, StreamingMigrationLoader
 {
-    private List<MigrationLoader> loaders = Lists.newArrayList();
+    private static final Logger LOG = LoggerFactory.getLogger(LoaderManager.class);
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final Comparator<PrioritizedLoader> BY_PRIORITY = new Comparator<PrioritizedLoader>() {
+        @Override
+        public int compare(final PrioritizedLoader o1, final PrioritizedLoader o2) {
+            return o2.priority < o1.priority ? -1 : (o2.priority == o1.priority ? 0 : 1);
+        }
+    };
+
+    private final List<PrioritizedLoader> prioritizedLoaders = Lists.newArrayList();
+
+    private volatile List<MigrationLoader> loaders = Collections.emptyList();
+
+    private final ConcurrentMap<String, MigrationLoader> schemeLoaders = new ConcurrentHashMap<String, MigrationLoader>();
 
-    public void addLoader(MigrationLoader loader)
+    private volatile LoadedFileCache fileCache = null;
+
+    public void addLoader(final MigrationLoader loader)
     {
-        loaders.add(loader);
+        addLoader(loader, DEFAULT_PRIORITY);
     }
 
-    public List<MigrationLoader> getLoaders()
+    public synchronized void addLoader(final MigrationLoader loader, final int priority)
     {
-        return loaders;
+        prioritizedLoaders.add(new PrioritizedLoader(loader, priority));
+        // Stable sort, loaders with the same priority stay in the order in which they were added.
+        Collections.sort(prioritizedLoaders, BY_PRIORITY);
+
+        final List<MigrationLoader> sortedLoaders = Lists.newArrayListWithCapacity(prioritizedLoaders.size());
+        for (final PrioritizedLoader prioritizedLoader : prioritizedLoaders) {
+            sortedLoaders.add(prioritizedLoader.loader);
+        }
+        loaders = ImmutableList.copyOf(sortedLoaders);
+        schemeLoaders.clear();
     }
 
     /**
-     * Returns true if this loader accepts the URI.
+     * Closes all loaders that hold resources, e.g. open jar files. All loaders are closed even if one of them
+     * fails, the first failure is thrown afterwards.
      */
-    public boolean accept(final URI uri)
+    public void close()
     {
+        IOException failure = null;
         for (final MigrationLoader loader : loaders) {
-            if (loader.accept(uri)) {
-                return true;
+            if (loader instanceof Closeable) {
+                try {
+                    ((Closeable) loader).close();
+                }
+                catch (IOException ioe) {
+                    LOG.warn("Could not close {}", loader, ioe);
+                    if (failure == null) {
+                        failure = ioe;
+                    }
+                }
             }
         }
 
-        return false;
+        if (failure != null) {
+            throw new MigratoryException(Reason.INTERNAL, failure);
+        }
+    }
+
+    public List<MigrationLoader> getLoaders()
+    {
+        return loaders;
+    }
+
+    /**
+     * Sets a cache for the contents of loaded files. Null disables caching.
+     */
+    public void setFileCache(final LoadedFileCache fileCache)
+    {
+        this.fileCache = fileCache;
+    }
+
+    public LoadedFileCache getFileCache()
+    {
+        return fileCache;
+    }
+
+    /**
+     * Returns true if this loader accepts the URI.
+     */
+    @Override
+    public boolean accept(final URI uri)
+    {
+        return getLoader(uri) != null;
     }
 
     /**
@@ -62,36 +144,207 @@ public class LoaderManager implements MigrationLoader
      * URIs may or may not loadable using this loader (e.g. a classpath folder
      * can contain File or Jar URIs.
      */
+    @Override
     public Collection<URI> loadFolder(final URI folderUri, final String pattern)
     {
         try {
-            for (final MigrationLoader loader : loaders) {
-                if (loader.accept(folderUri)) {
-                    return loader.loadFolder(folderUri, pattern);
-                }
-            }
-            return null;
+            final MigrationLoader loader = getLoader(folderUri);
+            return loader == null ? null : loader.loadFolder(folderUri, pattern);
         }
         catch (IOException ioe) {
             throw new MigratoryException(Reason.INTERNAL, ioe);
         }
     }
 
+    /**
+     * Returns the stamp of the loader for the URI, or null if that loader can not stamp files.
+     */
+    @Override
+    public String stampFor(final URI fileUri)
+    {
+        final MigrationLoader loader = getLoader(fileUri);
+        return (loader instanceof StampedMigrationLoader) ? ((StampedMigrationLoader) loader).stampFor(fileUri) : null;
+    }
+
     /**
      * Load a file from an URI.
      */
+    @Override
     public String loadFile(final URI fileUri)
     {
+        final MigrationLoader loader = getLoader(fileUri);
+        if (loader == null) {
+            return null;
+        }
+
+        final LoadedFileCache fileCache = this.fileCache;
+        final String stamp = (fileCache == null) ? null : stampFor(fileUri);
+        if (stamp != null) {
+            final String content = fileCache.get(fileUri, stamp);
+            if (content != null) {
+                return content;
+            }
+        }
+
         try {
-            for (final MigrationLoader loader : loaders) {
-                if (loader.accept(fileUri)) {
-                    return loader.loadFile(fileUri);
-                }
+            final String content = loader.loadFile(fileUri);
+            if (stamp != null && content != null) {
+                fileCache.put(fileUri, stamp, content);
             }
+            return content;
+        }
+        catch (IOException ioe) {
+            throw new MigratoryException(Reason.INTERNAL, ioe);
+        }
+    }
+
+    /**
+     * Opens a file from an URI. Files in the file cache are served from memory, loaders that implement
+     * {@link StreamingMigrationLoader} stream the file, all other files are loaded completely.
+     *
+     * @return A reader for the file, or null if no loader accepts the URI. The caller must close the reader.
+     */
+    @Override
+    public Reader openFile(final URI fileUri)
+    {
+        final MigrationLoader loader = getLoader(fileUri);
+        if (loader == null) {
             return null;
         }
+
+        final LoadedFileCache fileCache = this.fileCache;
+        if (fileCache != null) {
+            final String stamp = stampFor(fileUri);
+            final String content = (stamp == null) ? null : fileCache.get(fileUri, stamp);
+            if (content != null) {
+                return new StringReader(content);
+            }
+        }
+
+        try {
+            if (loader instanceof StreamingMigrationLoader) {
+                return ((StreamingMigrationLoader) loader).openFile(fileUri);
+            }
+
+            final String content = loadFile(fileUri);
+            return content == null ? null : new StringReader(content);
+        }
         catch (IOException ioe) {
             throw new MigratoryException(Reason.INTERNAL, ioe);
         }
     }
+
+    /**
+     * Load a number of files. The URIs are grouped by loader, loaders that implement {@link BulkMigrationLoader}
+     * load all of their files at once.
+     *
+     * @return The contents of the files, keyed by URI. URIs that no loader accepts are missing from the map.
+     */
+    public Map<URI, String> loadFiles(final Collection<URI> fileUris)
+    {
+        final LoadedFileCache fileCache = this.fileCache;
+        final Map<URI, String> results = Maps.newHashMap();
+        final Map<URI, String> stamps = Maps.newHashMap();
+
+        final Map<MigrationLoader, List<URI>> urisByLoader = Maps.newLinkedHashMap();
+        for (final URI fileUri : fileUris) {
+            final MigrationLoader loader = getLoader(fileUri);
+            if (loader != null) {
+                final String stamp = (fileCache == null) ? null : stampFor(fileUri);
+                if (stamp != null) {
+                    final String content = fileCache.get(fileUri, stamp);
+                    if (content != null) {
+                        results.put(fileUri, content);
+                        continue;
+                    }
+                    stamps.put(fileUri, stamp);
+                }
+
+                List<URI> loaderUris = urisByLoader.get(loader);
+                if (loaderUris == null) {
+                    loaderUris = Lists.newArrayList();
+                    urisByLoader.put(loader, loaderUris);
+                }
+                loaderUris.add(fileUri);
+            }
+        }
+
+        try {
+            final Map<URI, String> loaded = Maps.newHashMap();
+            for (final Map.Entry<MigrationLoader, List<URI>> entry : urisByLoader.entrySet()) {
+                final MigrationLoader loader = entry.getKey();
+                if (loader instanceof BulkMigrationLoader) {
+                    loaded.putAll(((BulkMigrationLoader) loader).loadFiles(entry.getValue()));
+                }
+                else {
+                    for (final URI fileUri : entry.getValue()) {
+                        loaded.put(fileUri, loader.loadFile(fileUri));
+                    }
+                }
+            }
+
+            for (final Map.Entry<URI, String> stamp : stamps.entrySet()) {
+                final String content = loaded.get(stamp.getKey());
+                if (content != null) {
+                    fileCache.put(stamp.getKey(), stamp.getValue(), content);
+                }
+            }
+
+            results.putAll(loaded);
+            return results;
+        }
+        catch (IOException ioe) {
+            throw new MigratoryException(Reason.INTERNAL, ioe);
+        }
+    }
+
+    /**
+     * Finds the first loader that accepts the URI. The loader is remembered for the scheme of the URI if
+     * it is a {@link SchemeMigrationLoader} that declares the scheme and all loaders before it are scheme
+     * loaders that do not. Otherwise the loaders are asked again for every URI.
+     */
+    private MigrationLoader getLoader(final URI uri)
+    {
+        if (uri == null) {
+            return null;
+        }
+
+        final String scheme = uri.getScheme();
+        if (scheme != null) {
+            final MigrationLoader schemeLoader = schemeLoaders.get(scheme);
+            if (schemeLoader != null) {
+                return schemeLoader;
+            }
+        }
+
+        boolean cacheable = scheme != null;
+        for (final MigrationLoader loader : loaders) {
+            final boolean declared = (loader instanceof SchemeMigrationLoader) && ((SchemeMigrationLoader) loader).getSchemes().contains(scheme);
+
+            if (loader.accept(uri)) {
+                if (cacheable && declared) {
+                    schemeLoaders.putIfAbsent(scheme, loader);
+                }
+                return loader;
+            }
+
+            // A loader that may accept other URIs with this scheme must be asked every time.
+            if (declared || !(loader instanceof SchemeMigrationLoader)) {
+                cacheable = false;
+            }
+        }
+        return null;
+    }
+
+    private static final class PrioritizedLoader
+    {
+        private final MigrationLoader loader;
+        private final int priority;
+
+        private PrioritizedLoader(final MigrationLoader loader, final int priority)
+        {
+            this.loader = loader;
+            this.priority = priority;
+        }
+    }
 }
@@ -21,8 +21,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Set;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Resources;
 
 import com.nesscomputing.migratory.MigratoryException;
@@ -32,8 +34,10 @@ import com.nesscomputing.migratory.MigratoryException.Reason;
  * Loads all the metadata migration files from the class path. Metadata is requested
  * as metadata:<path> from loadFolder. The resulting URIs can be loaded with the
  */
-public class MetadataLoader implements MigrationLoader
+public class MetadataLoader implements SchemeMigrationLoader
 {
+    private static final Set<String> SCHEMES = ImmutableSet.of("metadata");
+
     private final LoaderManager loaderManager;
 
     public MetadataLoader(final LoaderManager loaderManager)
@@ -47,6 +51,12 @@ public class MetadataLoader implements MigrationLoader
         return uri != null && "metadata".equals(uri.getScheme());
     }
 
+    @Override
+    public Set<String> getSchemes()
+    {
+        return SCHEMES;
+    }
+
     @Override
     public Collection<URI> loadFolder(final URI folderUri, final String pattern)
     {
@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+import java.util.Set;
+
+/**
+ * A loader that accepts URIs only by their scheme. The {@link LoaderManager} remembers such a loader
+ * for the schemes it declares and stops asking the other loaders for URIs with these schemes.
+ */
+public interface SchemeMigrationLoader extends MigrationLoader
+{
+    /**
+     * Returns the URI schemes of this loader. The loader must accept every URI with one of
+     * these schemes and no other URIs.
+     */
+    Set<String> getSchemes();
+}
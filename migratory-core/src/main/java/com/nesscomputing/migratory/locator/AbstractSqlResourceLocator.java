@@ -17,13 +17,22 @@ package com.nesscomputing.migratory.locator;
 
 import java.net.URI;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
+import com.google.common.collect.Lists;
+
+import com.nesscomputing.migratory.AbstractMigratoryContext;
 import com.nesscomputing.migratory.MigratoryContext;
 import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.loader.BulkMigrationLoader;
 import com.nesscomputing.migratory.loader.LoaderManager;
 import com.nesscomputing.migratory.migration.Migration;
+import com.nesscomputing.migratory.migration.MigrationCatalog;
+import com.nesscomputing.migratory.migration.sql.ChecksumCache;
 import com.nesscomputing.migratory.migration.sql.SqlMigration;
 
 import org.slf4j.Logger;
@@ -57,26 +66,66 @@ public abstract class AbstractSqlResourceLocator implements MigrationLocator
                 throw new MigratoryException(Reason.INTERNAL, "Could not load the metadata migrations from '" + baseUri + "' !");
             }
 
-            for (final URI uri : uris) {
-                final String rawSql = loaderManager.loadFile(uri);
+            preloadFiles(uris);
 
-                String path = uri.getPath();
-                String fileName = "unknown filename";
+            final List<Callable<SqlMigration>> tasks = Lists.newArrayListWithCapacity(uris.size());
+            for (final URI uri : uris) {
+                tasks.add(new Callable<SqlMigration>() {
+                    @Override
+                    public SqlMigration call() {
+                        return createMigration(personalityName, uri);
+                    }
+                });
+            }
 
-                if (path == null) {
-                    // jar:file:/....
-                    path = URI.create(uri.getSchemeSpecificPart()).getPath();
-                }
+            // The migrations are added to the map in the order of the URIs, not in the order in which they finished loading.
+            final ExecutorService executor = (tasks.size() > 1) ? AbstractMigratoryContext.adapt(migratoryContext).getLocatorExecutor() : null;
+            for (final SqlMigration migration : MigrationCatalog.runAll(executor, tasks)) {
+                migrations.put(migration.getScriptName(), migration);
+            }
+        }
+    }
 
-                if (path != null) {
-                    final int slashIndex = path.lastIndexOf('/');
-                    fileName = path.substring(slashIndex == -1 ? 0 : slashIndex + 1);
-                }
+    /**
+     * Fills the file cache with all scripts whose checksums are not cached, so that loaders which
+     * implement {@link BulkMigrationLoader} can load them at once instead of one by one.
+     */
+    private void preloadFiles(final Collection<URI> uris)
+    {
+        if (loaderManager.getFileCache() == null) {
+            return;
+        }
 
-                final SqlMigration migration = new SqlMigration(migratoryContext, personalityName, uri, fileName, rawSql);
-                migrations.put(fileName, migration);
+        final ChecksumCache checksumCache = AbstractMigratoryContext.adapt(migratoryContext).getChecksumCache();
+        final List<URI> missingUris = Lists.newArrayList();
+        for (final URI uri : uris) {
+            if (checksumCache.getChecksum(uri) == null) {
+                missingUris.add(uri);
             }
         }
+
+        if (!missingUris.isEmpty()) {
+            LOG.debug("Preloading {} files.", missingUris.size());
+            loaderManager.loadFiles(missingUris);
+        }
+    }
+
+    private SqlMigration createMigration(final String personalityName, final URI uri)
+    {
+        String path = uri.getPath();
+        String fileName = "unknown filename";
+
+        if (path == null) {
+            // jar:file:/....
+            path = URI.create(uri.getSchemeSpecificPart()).getPath();
+        }
+
+        if (path != null) {
+            final int slashIndex = path.lastIndexOf('/');
+            fileName = path.substring(slashIndex == -1 ? 0 : slashIndex + 1);
+        }
+
+        return new SqlMigration(migratoryContext, personalityName, uri, fileName);
     }
 
     protected abstract Map.Entry<URI, String> getBaseInformation(final String personalityName, final String databaseType);
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.metadata;
+
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often and how long migrations waited for a personality lock.
+ */
+public class LockMetrics
+{
+    private long lockCount = 0L;
+    private long attemptCount = 0L;
+    private long timeoutCount = 0L;
+    private long skipCount = 0L;
+    private long totalWaitNanos = 0L;
+    private long maxWaitNanos = 0L;
+
+    /**
+     * Records a lock that was acquired after waiting for some time.
+     */
+    public synchronized void recordLock(final long waitNanos, final int attempts)
+    {
+        lockCount++;
+        record(waitNanos, attempts);
+    }
+
+    /**
+     * Records a wait that ended because the lock timeout expired.
+     */
+    public synchronized void recordTimeout(final long waitNanos, final int attempts)
+    {
+        timeoutCount++;
+        record(waitNanos, attempts);
+    }
+
+    /**
+     * Records a wait that ended because another migrator brought the personality to the requested version.
+     */
+    public synchronized void recordSkip(final long waitNanos, final int attempts)
+    {
+        skipCount++;
+        record(waitNanos, attempts);
+    }
+
+    private void record(final long waitNanos, final int attempts)
+    {
+        attemptCount += attempts;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    public synchronized long getLockCount()
+    {
+        return lockCount;
+    }
+
+    public synchronized long getAttemptCount()
+    {
+        return attemptCount;
+    }
+
+    public synchronized long getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    public synchronized long getSkipCount()
+    {
+        return skipCount;
+    }
+
+    public synchronized long getTotalWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    public synchronized long getMaxWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("LockMetrics[locks=%d, attempts=%d, timeouts=%d, skips=%d, totalWait=%dms, maxWait=%dms]",
+                             lockCount, attemptCount, timeoutCount, skipCount, getTotalWaitMillis(), getMaxWaitMillis());
+    }
+}
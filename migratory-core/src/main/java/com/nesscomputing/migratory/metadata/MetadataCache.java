@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.metadata;
+
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.skife.jdbi.v2.Handle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nesscomputing.migratory.MigratoryOption;
+import com.nesscomputing.migratory.migration.MigrationResult.MigrationState;
+
+/**
+ * Keeps a copy of the metadata table in memory. Every read only fetches the rows that were added since
+ * the last read, so repeated status and history calls cost a single query that usually returns nothing.
+ *
+ * Metadata ids are handed out when a row is inserted, not when it is committed, so a row can become visible
+ * after rows with higher ids (e.g. when personalities are migrated in parallel). Ids between the highest id
+ * of the last full load and the highest id seen that have not been seen yet are re-read on every refresh until
+ * they show up or have been missing for longer than the missing id timeout. Ids that never show up (rolled back
+ * inserts, sequence gaps) stop being re-read after that timeout. Rows that show up later than that and changes
+ * that remove rows (a dbClean from another process) are caught by reloading the whole table once the copy is
+ * older than the maximum age. The copy is also dropped whenever this Migratory instance commits metadata or
+ * cleans the database.
+ */
+public class MetadataCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class);
+
+    public static final long DEFAULT_MAX_AGE = 60000L;
+
+    /** Time in milliseconds after which an id that was handed out but never showed up is no longer re-read. */
+    public static final long DEFAULT_MISSING_ID_TIMEOUT = 10000L;
+
+    /** Upper bound for the number of missing ids that are tracked. Rows for untracked ids show up after the next full load. */
+    private static final int MAX_MISSING_IDS = 1000;
+
+    private final Map<String, List<MetadataInfo>> history = Maps.newHashMap();
+    private final Set<Long> seenIds = Sets.newHashSet();
+    /** Ids that were handed out but not visible yet, mapped to the time they were first missed. */
+    private final SortedMap<Long, Long> missingIds = Maps.newTreeMap();
+
+    private long lastSeen = -1L;
+    private long loadedAt = 0L;
+    private long maxAge = DEFAULT_MAX_AGE;
+    private long missingIdTimeout = DEFAULT_MISSING_ID_TIMEOUT;
+
+    /**
+     * Sets the time in milliseconds after which the full metadata table is read again. 0 never reloads.
+     */
+    public synchronized void setMaxAge(final long maxAge)
+    {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an id that never showed up is no longer re-read.
+     */
+    synchronized void setMissingIdTimeout(final long missingIdTimeout)
+    {
+        this.missingIdTimeout = missingIdTimeout;
+    }
+
+    /**
+     * Drops all cached metadata. The next read loads the full metadata table.
+     */
+    public synchronized void invalidate()
+    {
+        history.clear();
+        seenIds.clear();
+        missingIds.clear();
+        lastSeen = -1L;
+        loadedAt = 0L;
+    }
+
+    /**
+     * Returns the history for the given personalities, or all personalities if the collection is null.
+     */
+    public synchronized Map<String, List<MetadataInfo>> getHistory(final Handle handle, final Collection<String> personalities, final MigratoryOption [] options)
+    {
+        refresh(handle);
+
+        final Map<String, List<MetadataInfo>> results = Maps.newTreeMap();
+        for (final Map.Entry<String, List<MetadataInfo>> entry : history.entrySet()) {
+            if (accept(entry.getKey(), personalities, options)) {
+                results.put(entry.getKey(), Lists.newArrayList(entry.getValue()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the latest metadata entry for the given personalities, or all personalities if the collection is null.
+     */
+    public synchronized Map<String, MetadataInfo> getStatus(final Handle handle, final Collection<String> personalities, final MigratoryOption [] options)
+    {
+        refresh(handle);
+
+        final boolean includeFailed = MigratoryOption.containsOption(MigratoryOption.INCLUDE_FAILED, options);
+
+        final Map<String, MetadataInfo> results = Maps.newHashMap();
+        for (final Map.Entry<String, List<MetadataInfo>> entry : history.entrySet()) {
+            if (accept(entry.getKey(), personalities, options)) {
+                for (final MetadataInfo metadataInfo : Lists.reverse(entry.getValue())) {
+                    if (includeFailed || metadataInfo.getState() == MigrationState.OK) {
+                        results.put(entry.getKey(), metadataInfo);
+                        break;
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the metadata rows that were added since the last read. Returns the number of rows read.
+     */
+    synchronized int refresh(final Handle handle)
+    {
+        final long now = System.currentTimeMillis();
+        if (lastSeen >= 0L && maxAge > 0L && now - loadedAt > maxAge) {
+            LOG.trace("Metadata cache is older than {} ms, reloading", maxAge);
+            invalidate();
+        }
+
+        // Gaps in a full load are not tracked, they are sequence gaps or rows that the next full load picks up.
+        final boolean fullLoad = lastSeen < 0L;
+        if (fullLoad) {
+            loadedAt = now;
+        }
+
+        for (final Iterator<Map.Entry<Long, Long>> it = missingIds.entrySet().iterator(); it.hasNext(); ) {
+            if (now - it.next().getValue() > missingIdTimeout) {
+                it.remove();
+            }
+        }
+
+        // Read again from the lowest id that was handed out but not visible at the last read.
+        final long readFrom = missingIds.isEmpty() ? lastSeen : missingIds.firstKey() - 1L;
+
+        final List<MetadataInfo> metadataInfos = handle.createQuery(MetadataManager.METADATA_PREFIX + "query_since")
+            .bind("last_seen", readFrom)
+            .map(MetadataInfo.MAPPER)
+            .list();
+
+        LOG.trace("Read {} metadata rows after {}", metadataInfos.size(), readFrom);
+
+        for (final MetadataInfo metadataInfo : metadataInfos) {
+            final long id = metadataInfo.getMetadataInfoId();
+            if (!seenIds.add(id)) {
+                continue;
+            }
+            missingIds.remove(id);
+
+            if (id > lastSeen) {
+                if (!fullLoad) {
+                    for (long missingId = lastSeen + 1L; missingId < id && missingIds.size() < MAX_MISSING_IDS; missingId++) {
+                        missingIds.put(missingId, now);
+                    }
+                }
+                lastSeen = id;
+            }
+
+            List<MetadataInfo> personalityHistory = history.get(metadataInfo.getPersonalityName());
+            if (personalityHistory == null) {
+                personalityHistory = Lists.newArrayList();
+                history.put(metadataInfo.getPersonalityName(), personalityHistory);
+            }
+            addInOrder(personalityHistory, metadataInfo);
+        }
+        return metadataInfos.size();
+    }
+
+    /**
+     * Keeps the history of a personality in metadata id order, rows that show up late are inserted at their place.
+     */
+    private static void addInOrder(final List<MetadataInfo> personalityHistory, final MetadataInfo metadataInfo)
+    {
+        int index = personalityHistory.size();
+        while (index > 0 && personalityHistory.get(index - 1).getMetadataInfoId() > metadataInfo.getMetadataInfoId()) {
+            index--;
+        }
+        personalityHistory.add(index, metadataInfo);
+    }
+
+    private static boolean accept(final String personalityName, final Collection<String> personalities, final MigratoryOption [] options)
+    {
+        if (personalities != null && !personalities.contains(personalityName)) {
+            return false;
+        }
+        return MigratoryOption.containsOption(MigratoryOption.INCLUDE_INTERNAL, options) || !MetadataManager.METADATA_MIGRATION_NAME.equals(personalityName);
+    }
+}
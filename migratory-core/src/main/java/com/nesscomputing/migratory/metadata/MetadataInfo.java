@@ -22,8 +22,8 @@ import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.skife.jdbi.v2.SQLStatement;
 import org.skife.jdbi.v2.StatementContext;
-import org.skife.jdbi.v2.Update;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 
 import com.nesscomputing.migratory.jdbi.JdbiArguments;
@@ -198,21 +198,21 @@ public class MetadataInfo
         return metadataInfoId;
     }
 
-    public Update bindToHandle(final Update update)
+    public <T extends SQLStatement<T>> T bindToHandle(final T statement)
     {
-        update.bind("start_version", getStartVersion());
-        update.bind("end_version",getEndVersion());
-        update.bind("personality_name",getPersonalityName());
-        update.bind("description",getDescription());
-        update.bind("type",JdbiArguments.forEnum(getType()));
-        update.bind("state",JdbiArguments.forEnum(getState()));
-        update.bind("direction",JdbiArguments.forEnum(getDirection()));
-        update.bind("execution_time",getExecutionTime());
-        update.bind("location",getLocation());
-        update.bind("script_name",getScriptName());
-        update.bind("checksum",getChecksum());
-
-        return update;
+        statement.bind("start_version", getStartVersion());
+        statement.bind("end_version",getEndVersion());
+        statement.bind("personality_name",getPersonalityName());
+        statement.bind("description",getDescription());
+        statement.bind("type",JdbiArguments.forEnum(getType()));
+        statement.bind("state",JdbiArguments.forEnum(getState()));
+        statement.bind("direction",JdbiArguments.forEnum(getDirection()));
+        statement.bind("execution_time",getExecutionTime());
+        statement.bind("location",getLocation());
+        statement.bind("script_name",getScriptName());
+        statement.bind("checksum",getChecksum());
+
+        return statement;
     }
 
     static class Mapper implements ResultSetMapper<MetadataInfo>
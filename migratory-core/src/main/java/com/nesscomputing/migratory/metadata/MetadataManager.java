@@ -19,26 +19,37 @@ package com.nesscomputing.migratory.metadata;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Maps.EntryTransformer;
+import com.google.common.collect.Sets;
 
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
 import org.skife.jdbi.v2.Query;
-import org.skife.jdbi.v2.Update;
 import org.skife.jdbi.v2.exceptions.CallbackFailedException;
 import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.skife.jdbi.v2.util.LongMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.nesscomputing.migratory.AbstractMigratoryContext;
 import com.nesscomputing.migratory.MigratoryConfig;
 import com.nesscomputing.migratory.MigratoryContext;
 import com.nesscomputing.migratory.MigratoryException;
 import com.nesscomputing.migratory.MigratoryException.Reason;
 import com.nesscomputing.migratory.MigratoryOption;
+import com.nesscomputing.migratory.dbsupport.AbstractDbSupport;
+import com.nesscomputing.migratory.dbsupport.DbSupportFactory;
+import com.nesscomputing.migratory.dbsupport.LockStrategy;
 import com.nesscomputing.migratory.migration.DbMigrator;
 import com.nesscomputing.migratory.migration.MigrationManager;
 import com.nesscomputing.migratory.migration.MigrationPlanner;
@@ -53,28 +64,34 @@ public class MetadataManager
 
     public static final String METADATA_PREFIX = "#metadata:";
 
-    private final MigratoryContext migratoryContext;
+    /** Upper limit for the number of personalities in a single status or history query. */
+    private static final int MAX_PERSONALITIES_PER_QUERY = 500;
+
+    private final AbstractMigratoryContext migratoryContext;
     private final MigratoryConfig migratoryConfig;
 
+    private final Random random = new Random();
+
     private Handle transactionHandle = null;
 
     public MetadataManager(final MigratoryContext migratoryContext)
     {
-        this.migratoryContext = migratoryContext;
+        this.migratoryContext = AbstractMigratoryContext.adapt(migratoryContext);
         this.migratoryConfig = migratoryContext.getConfig();
     }
 
     /**
      * Make sure that the metadata exists. If it does not exist, create
-     * the metadata table from scratch and register its creation.
-     * @return A migration result if the table was created or null if it already existed.
+     * the metadata table from scratch and register its creation. If it exists
+     * but is older than the metadata migrations, upgrade it.
+     * @return A migration result if the table was created or upgraded or null if it already existed.
      */
     public List<MetadataInfo> ensureMetadata(final MigratoryOption [] options)
         throws MigratoryException
     {
         if (migratoryContext.getDbSupport().tableExists(migratoryConfig.getMetadataTableName()))
         {
-            return null;
+            return upgradeMetadata(options);
         }
 
         if (migratoryConfig.isReadOnly()) {
@@ -104,22 +121,140 @@ public class MetadataManager
         }
     }
 
+    /**
+     * Migrates the metadata personality of an existing metadata table to the latest version, so that
+     * tables created by older versions of migratory get new indices and tables as well.
+     */
+    private List<MetadataInfo> upgradeMetadata(final MigratoryOption [] options)
+    {
+        final Integer currentVersion = getCurrentVersion(METADATA_MIGRATION_NAME, MigratoryOption.INCLUDE_INTERNAL);
+        if (currentVersion == null) {
+            LOG.warn("Metadata table exists but has no version, not upgrading it!");
+            return null;
+        }
+
+        final MigrationPlanner migrationPlanner = new MigrationPlanner(new MigrationManager(migratoryContext, METADATA_MIGRATION_NAME), currentVersion, Integer.MAX_VALUE);
+        migrationPlanner.plan();
+
+        if (migrationPlanner.getDirection() != MigrationDirection.FORWARD) {
+            return null;
+        }
+
+        if (migratoryConfig.isReadOnly()) {
+            LOG.debug("Metadata table is at version {} but migratory is read-only, not upgrading it.", currentVersion);
+            return null;
+        }
+
+        try {
+            // The metadata table itself can not be locked, the upgrade might need to change it on a different
+            // connection. The "lock_upgrade" template takes a lock that only upgrades wait for.
+            begin();
+            if (DbSupportFactory.adapt(migratoryContext.getDbSupport()).supportsLocking()) {
+                transactionHandle.createStatement(METADATA_PREFIX + "lock_upgrade").execute();
+
+                if (!currentVersion.equals(getCurrentVersion(METADATA_MIGRATION_NAME, MigratoryOption.INCLUDE_INTERNAL))) {
+                    LOG.info("Metadata table was upgraded by another migrator.");
+                    rollback();
+                    return null;
+                }
+            }
+
+            LOG.info("Upgrading metadata table from version {} to {}.", currentVersion, migrationPlanner.getTargetVersion());
+            final List<MigrationResult> results = new DbMigrator(migratoryContext, migrationPlanner).migrate(options);
+            return commit(results);
+        } catch (MigratoryException e) {
+            rollback();
+            throw e;
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        }
+    }
+
     public void lock(final String personalityName)
     {
-        transactionHandle = migratoryContext.getDBI().open();
-        transactionHandle.begin();
+        lock(personalityName, null);
+    }
 
-        if (METADATA_MIGRATION_NAME.equals(personalityName)) {
+    /**
+     * Opens a transaction and locks a personality in it.
+     *
+     * If a lock timeout is configured, the lock is only tried. While another migrator holds the lock, the transaction
+     * is rolled back and the lock is tried again after a randomized, growing wait, so that no connection waits in
+     * the lock queue. If the personality reaches the target version while waiting, no lock is taken.
+     *
+     * @param targetVersion The version that the caller wants to migrate to, or null.
+     * @return True if the personality is locked, false if it reached the target version while waiting.
+     */
+    public boolean lock(final String personalityName, final Integer targetVersion)
+    {
+        final AbstractDbSupport dbSupport = DbSupportFactory.adapt(migratoryContext.getDbSupport());
+
+        if (METADATA_MIGRATION_NAME.equals(personalityName) || !dbSupport.supportsLocking()) {
             // Can't lock the actual metadata migration, because the table might not exist yet.
-            return;
+            begin();
+            return true;
         }
-        if (migratoryContext.getDbSupport().supportsLocking()) {
-            transactionHandle.createStatement(METADATA_PREFIX + "lock")
-                .bind("personality_name", personalityName)
-                .execute();
+
+        final LockStrategy lockStrategy = dbSupport.getLockStrategy();
+        final LockMetrics lockMetrics = migratoryContext.getLockMetrics();
+        final String tableName = migratoryConfig.getMetadataTableName();
+        final long lockTimeout = migratoryConfig.getLockTimeout();
+        final long startTime = System.nanoTime();
+
+        if (lockTimeout <= 0L) {
+            begin();
+            lockStrategy.lock(transactionHandle, tableName, personalityName);
+            lockMetrics.recordLock(System.nanoTime() - startTime, 1);
+            return true;
+        }
+
+        long backoff = Math.max(1L, migratoryConfig.getLockBackoffMin());
+        for (int attempts = 1; ; attempts++) {
+            begin();
+            if (lockStrategy.tryLock(transactionHandle, tableName, personalityName)) {
+                lockMetrics.recordLock(System.nanoTime() - startTime, attempts);
+                return true;
+            }
+            rollback();
+
+            final long waitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            if (waitTime >= lockTimeout) {
+                lockMetrics.recordTimeout(System.nanoTime() - startTime, attempts);
+                throw new MigratoryException(Reason.LOCK_TIMEOUT, "Could not lock personality '%s' within %d ms!", personalityName, lockTimeout);
+            }
+
+            // Wait between half and all of the backoff, so that migrators that started together spread out.
+            final long sleepTime = Math.min(lockTimeout - waitTime, backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2)));
+            LOG.debug("Personality '{}' is locked by another migrator, trying again in {} ms", personalityName, sleepTime);
+            try {
+                Thread.sleep(sleepTime);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new MigratoryException(Reason.INTERNAL, ie);
+            }
+            backoff = Math.min(backoff * 2, Math.max(backoff, migratoryConfig.getLockBackoffMax()));
+
+            if (targetVersion != null && targetVersion.equals(getCurrentVersion(personalityName))) {
+                LOG.info("Personality '{}' was migrated to version {} by another migrator.", personalityName, targetVersion);
+                lockMetrics.recordSkip(System.nanoTime() - startTime, attempts);
+                return false;
+            }
         }
     }
 
+    private void begin()
+    {
+        transactionHandle = migratoryContext.getDBI().open();
+        transactionHandle.begin();
+    }
+
+    /**
+     * Records the results of a migration and commits the transaction. All results must belong to the
+     * personality that was locked. The metadata ids are taken from the sequence first, then the rows are
+     * written in a single batch and read back by their ids.
+     */
     public List<MetadataInfo> commit(final List<MigrationResult> migrationResults)
     {
         if (transactionHandle == null) {
@@ -129,13 +264,49 @@ public class MetadataManager
         try {
             final List<MetadataInfo> results = Lists.newArrayList();
 
-            if (migrationResults != null) {
-                for (MigrationResult migrationResult : migrationResults) {
-                    final MetadataInfo metadataInfo = new MetadataInfo(migrationResult);
+            if (migrationResults != null && !migrationResults.isEmpty()) {
+                // Take the ids from the sequence up front, so that the inserted rows can be told apart from rows
+                // that other migrators insert at the same time.
+                final List<Long> ids = transactionHandle.createQuery(METADATA_PREFIX + "next_ids")
+                    .bind("count", migrationResults.size())
+                    .map(LongMapper.FIRST)
+                    .list();
+
+                if (ids.size() != migrationResults.size()) {
+                    throw new MigratoryException(Reason.INTERNAL, "Got %d metadata ids for %d results!", ids.size(), migrationResults.size());
+                }
+
+                final PreparedBatch batch = transactionHandle.prepareBatch(METADATA_PREFIX + "insert_metadata");
 
-                    final Update update = metadataInfo.bindToHandle(transactionHandle.createStatement(METADATA_PREFIX + "insert_metadata"));
-                    final int count = update.execute();
-                    LOG.debug("{} rows changed by inserting {}.", count, metadataInfo);
+                for (int i = 0; i < migrationResults.size(); i++) {
+                    new MetadataInfo(migrationResults.get(i)).bindToHandle(batch.add()).bind("metadata_id", ids.get(i));
+                }
+
+                final int [] counts = batch.execute();
+                LOG.debug("{} rows inserted by batch.", counts.length);
+
+                // Read the rows back for the values that the database filled in.
+                final String personalityName = migrationResults.get(0).getMigration().getPersonalityName();
+                final Set<Long> insertedIds = Sets.newHashSet(ids);
+                final List<MetadataInfo> inserted = transactionHandle.createQuery(METADATA_PREFIX + "query_inserted")
+                    .bind("personality_name", personalityName)
+                    .bind("min_id", Collections.min(ids))
+                    .bind("max_id", Collections.max(ids))
+                    .map(MetadataInfo.MAPPER)
+                    .list();
+
+                final Map<Long, MetadataInfo> insertedById = Maps.newHashMap();
+                for (final MetadataInfo metadataInfo : inserted) {
+                    if (insertedIds.contains(metadataInfo.getMetadataInfoId())) {
+                        insertedById.put(metadataInfo.getMetadataInfoId(), metadataInfo);
+                    }
+                }
+
+                for (final Long id : ids) {
+                    final MetadataInfo metadataInfo = insertedById.get(id);
+                    if (metadataInfo == null) {
+                        throw new MigratoryException(Reason.INTERNAL, "Could not read back metadata row %d!", id);
+                    }
                     results.add(metadataInfo);
                 }
             }
@@ -146,6 +317,7 @@ public class MetadataManager
             transactionHandle.commit();
             transactionHandle.close();
             transactionHandle = null;
+            migratoryContext.getMetadataCache().invalidate();
         }
     }
 
@@ -163,32 +335,27 @@ public class MetadataManager
 
     public Map<String, List<MetadataInfo>> getHistory(final Collection<String> personalities, final MigratoryOption [] options)
     {
+        if (isCacheActive()) {
+            return migratoryContext.getDBI().withHandle(new HandleCallback<Map<String, List<MetadataInfo>>>() {
+                    @Override
+                    public Map<String, List<MetadataInfo>> withHandle(final Handle handle) {
+                        return migratoryContext.getMetadataCache().getHistory(handle, personalities, options);
+                    }
+                });
+        }
+
         return performCallback(new HandleCallback<Map<String, List<MetadataInfo>>>() {
                 @Override
                 public Map<String, List<MetadataInfo>> withHandle(final Handle handle) throws SQLException {
                     final Map<String, List<MetadataInfo>> results = Maps.newTreeMap();
 
                     if (personalities != null) {
-                        for (final String personality : personalities) {
-                            final List<MetadataInfo> result =
-                                new HistoryCallback(personality, options).withHandle(handle);
-
-                            if (!result.isEmpty()) {
-                                results.put(personality, result);
-                            }
+                        for (final List<String> personalityGroup : Iterables.partition(personalities, MAX_PERSONALITIES_PER_QUERY)) {
+                            addHistory(results, HistoryCallback.getHistoryQuery(handle, personalityGroup, options).list());
                         }
                     }
                     else {
-                        final List<MetadataInfo> result = HistoryCallback.getHistoryQuery(handle, null, options).list();
-
-                        for (final MetadataInfo metadataInfo : result) {
-                            List<MetadataInfo> resultList = results.get(metadataInfo.getPersonalityName());
-                            if (resultList == null) {
-                                resultList = new ArrayList<MetadataInfo>();
-                                results.put(metadataInfo.getPersonalityName(), resultList);
-                            }
-                            resultList.add(metadataInfo);
-                        }
+                        addHistory(results, HistoryCallback.getHistoryQuery(handle, (String) null, options).list());
                     }
 
                     return results;
@@ -196,8 +363,29 @@ public class MetadataManager
             });
     }
 
+    private static void addHistory(final Map<String, List<MetadataInfo>> results, final List<MetadataInfo> metadataInfos)
+    {
+        for (final MetadataInfo metadataInfo : metadataInfos) {
+            List<MetadataInfo> resultList = results.get(metadataInfo.getPersonalityName());
+            if (resultList == null) {
+                resultList = new ArrayList<MetadataInfo>();
+                results.put(metadataInfo.getPersonalityName(), resultList);
+            }
+            resultList.add(metadataInfo);
+        }
+    }
+
     public Map<String, MetadataInfo> getStatus(final Collection<String> personalities, final MigratoryOption ... options)
     {
+        if (isCacheActive()) {
+            return migratoryContext.getDBI().withHandle(new HandleCallback<Map<String, MetadataInfo>>() {
+                    @Override
+                    public Map<String, MetadataInfo> withHandle(final Handle handle) {
+                        return migratoryContext.getMetadataCache().getStatus(handle, personalities, options);
+                    }
+                });
+        }
+
         return performCallback(new HandleCallback<Map<String, MetadataInfo>>() {
                 @Override
                 public Map<String, MetadataInfo> withHandle(final Handle handle) throws SQLException {
@@ -205,21 +393,12 @@ public class MetadataManager
                     final Map<String, MetadataInfo> results = Maps.newHashMap();
 
                     if (personalities != null) {
-                        for (final String personality : personalities) {
-                            final MetadataInfo result =
-                                new StatusCallback(personality, options).withHandle(handle);
-
-                            if (result != null) {
-                                results.put(personality, result);
-                            }
+                        for (final List<String> personalityGroup : Iterables.partition(personalities, MAX_PERSONALITIES_PER_QUERY)) {
+                            addStatus(results, StatusCallback.getStatusQuery(handle, personalityGroup, options).list());
                         }
                     }
                     else {
-                        final List<MetadataInfo> result = StatusCallback.getStatusQuery(handle, null, options).list();
-
-                        for (final MetadataInfo metadataInfo : result) {
-                            results.put(metadataInfo.getPersonalityName(), metadataInfo);
-                        }
+                        addStatus(results, StatusCallback.getStatusQuery(handle, (String) null, options).list());
                     }
 
                     return results;
@@ -227,6 +406,22 @@ public class MetadataManager
             });
     }
 
+    private static void addStatus(final Map<String, MetadataInfo> results, final List<MetadataInfo> metadataInfos)
+    {
+        for (final MetadataInfo metadataInfo : metadataInfos) {
+            results.put(metadataInfo.getPersonalityName(), metadataInfo);
+        }
+    }
+
+    /**
+     * The metadata cache is only used outside of a transaction. Inside a transaction, the
+     * metadata must be read through the transaction handle.
+     */
+    private boolean isCacheActive()
+    {
+        return migratoryConfig.isMetadataCache() && transactionHandle == null;
+    }
+
     private <T> T performCallback(final HandleCallback<T> callback) {
         if (transactionHandle != null) {
             try {
@@ -300,6 +495,16 @@ public class MetadataManager
 
             return query;
         }
+
+        private static Query<MetadataInfo> getStatusQuery(final Handle handle, final Collection<String> personalities, final MigratoryOption [] options)
+        {
+            final Query<MetadataInfo> query = handle.createQuery(METADATA_PREFIX + "query_status")
+                .define("include_internal", MigratoryOption.containsOption(MigratoryOption.INCLUDE_INTERNAL, options))
+                .define("include_failed", MigratoryOption.containsOption(MigratoryOption.INCLUDE_FAILED, options))
+                .map(MetadataInfo.MAPPER);
+
+            return bindPersonalities(query, personalities);
+        }
     }
 
     private static class HistoryCallback implements HandleCallback<List<MetadataInfo>>
@@ -328,5 +533,34 @@ public class MetadataManager
 
             return query;
         }
+
+        private static Query<MetadataInfo> getHistoryQuery(final Handle handle, final Collection<String> personalities, final MigratoryOption [] options)
+        {
+            final Query<MetadataInfo> query = handle.createQuery(METADATA_PREFIX + "query_history")
+                .define("include_internal", MigratoryOption.containsOption(MigratoryOption.INCLUDE_INTERNAL, options))
+                .map(MetadataInfo.MAPPER);
+
+            return bindPersonalities(query, personalities);
+        }
+    }
+
+    /**
+     * Restricts a status or history query to a list of personalities. The template expands
+     * the personality_names list into an IN clause with one named parameter per personality.
+     */
+    private static Query<MetadataInfo> bindPersonalities(final Query<MetadataInfo> query, final Collection<String> personalities)
+    {
+        final List<String> bindNames = Lists.newArrayListWithCapacity(personalities.size());
+
+        int index = 0;
+        for (final String personality : personalities) {
+            final String bindName = "personality_name_" + index++;
+            bindNames.add(bindName);
+            query.bind(bindName, personality);
+        }
+
+        query.define("personality_name", null);
+        query.define("personality_names", bindNames);
+        return query;
     }
 }
@@ -62,4 +62,13 @@ public abstract class Migration
     public abstract void migrate(final Handle handle);
 
     public abstract boolean isNeedsRoot();
+
+    /**
+     * Returns true if the source of this migration is known not to have changed since the migration was created.
+     * The default can not tell and returns false.
+     */
+    public boolean isCurrent()
+    {
+        return false;
+    }
 }
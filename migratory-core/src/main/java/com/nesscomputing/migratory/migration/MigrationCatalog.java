@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nesscomputing.migratory.AbstractMigratoryContext;
+import com.nesscomputing.migratory.MigratoryContext;
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.locator.MigrationLocator;
+import com.nesscomputing.migratory.metadata.MetadataManager;
+
+/**
+ * Holds all migrations that the locators contributed, indexed by database type and personality. Every
+ * locator is asked only once per personality, all status, validate and migrate operations of a Migratory
+ * instance share the result. The migration graph of a personality is built once and shared the same way.
+ */
+public class MigrationCatalog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MigrationCatalog.class);
+
+    private final MigratoryContext migratoryContext;
+
+    private final ConcurrentMap<String, Map<String, Migration>> catalog = new ConcurrentHashMap<String, Map<String, Migration>>();
+    private final ConcurrentMap<String, MigrationGraph> graphs = new ConcurrentHashMap<String, MigrationGraph>();
+
+    public MigrationCatalog(final MigratoryContext migratoryContext)
+    {
+        this.migratoryContext = migratoryContext;
+    }
+
+    /**
+     * Returns all available migrations for a personality, keyed by script name.
+     */
+    public Map<String, Migration> getMigrations(final String personalityName)
+    {
+        final String databaseType = migratoryContext.getDbSupport().getDatabaseType();
+        final String key = getKey(personalityName, databaseType);
+
+        Map<String, Migration> migrations = catalog.get(key);
+        if (migrations == null) {
+            final Map<String, Migration> locatedMigrations = Collections.unmodifiableMap(locateMigrations(personalityName, databaseType));
+            migrations = catalog.putIfAbsent(key, locatedMigrations);
+            if (migrations == null) {
+                migrations = locatedMigrations;
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * Returns the graph of all available migrations for a personality. The graph is rebuilt
+     * only if the available migrations changed.
+     */
+    public MigrationGraph getMigrationGraph(final String personalityName)
+    {
+        final Map<String, Migration> migrations = getMigrations(personalityName);
+        final String key = getKey(personalityName, migratoryContext.getDbSupport().getDatabaseType());
+
+        final MigrationGraph migrationGraph = graphs.get(key);
+        if (migrationGraph != null && migrationGraph.isBuiltFrom(migrations)) {
+            return migrationGraph;
+        }
+
+        final MigrationGraph builtGraph = new MigrationGraph(personalityName, migrations);
+        graphs.put(key, builtGraph);
+        return builtGraph;
+    }
+
+    /**
+     * Drops all cached migrations. The next access to a personality scans the locators again.
+     */
+    public void invalidate()
+    {
+        catalog.clear();
+        graphs.clear();
+    }
+
+    /**
+     * Drops the cached migrations of every personality that has a migration whose source changed or can not
+     * be checked for changes. The next access to such a personality scans the locators again.
+     */
+    public void invalidateChanged()
+    {
+        for (final Map.Entry<String, Map<String, Migration>> entry : catalog.entrySet()) {
+            for (final Migration migration : entry.getValue().values()) {
+                if (!migration.isCurrent()) {
+                    LOG.debug("Migration '{}' changed, dropping the cached migrations for {}", migration.getLocation(), entry.getKey());
+                    if (catalog.remove(entry.getKey(), entry.getValue())) {
+                        graphs.remove(entry.getKey());
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the cached migrations for a personality.
+     */
+    public void invalidate(final String personalityName)
+    {
+        final String key = getKey(personalityName, migratoryContext.getDbSupport().getDatabaseType());
+        catalog.remove(key);
+        graphs.remove(key);
+    }
+
+    private Map<String, Migration> locateMigrations(final String personalityName, final String databaseType)
+    {
+        final List<MigrationLocator> migrationLocators = Lists.newArrayList();
+
+        // Load the internal migrations only from a loader that knows how to find them.
+        final boolean metadataPersonality = MetadataManager.METADATA_MIGRATION_NAME.equals(personalityName);
+        for (final MigrationLocator locator : migratoryContext.getLocators()) {
+            if (locator.isSystemLoader() == metadataPersonality) {
+                migrationLocators.add(locator);
+            }
+        }
+
+        final List<Callable<Map<String, Migration>>> tasks = Lists.newArrayListWithCapacity(migrationLocators.size());
+        for (final MigrationLocator locator : migrationLocators) {
+            tasks.add(new Callable<Map<String, Migration>>() {
+                @Override
+                public Map<String, Migration> call() {
+                    final Map<String, Migration> contribution = Maps.newHashMap();
+                    locator.contributeMigrations(contribution, personalityName, databaseType);
+                    return contribution;
+                }
+            });
+        }
+
+        final ExecutorService executor = (tasks.size() > 1) ? AbstractMigratoryContext.adapt(migratoryContext).getLocatorExecutor() : null;
+        final List<Map<String, Migration>> contributions = runAll(executor, tasks);
+
+        // Merge in locator order, so that a later locator replaces a script with the same name no matter
+        // which locator finished first.
+        final Map<String, Migration> availableMigrations = Maps.newHashMap();
+        for (final Map<String, Migration> contribution : contributions) {
+            for (final Map.Entry<String, Migration> migration : contribution.entrySet()) {
+                final Migration previous = availableMigrations.put(migration.getKey(), migration.getValue());
+                if (previous != null) {
+                    LOG.warn("Script '{}' was found at {} and {}, using the latter!", new Object[] { migration.getKey(), previous.getLocation(), migration.getValue().getLocation() });
+                }
+            }
+        }
+
+        LOG.debug("Located {} migrations for personality '{}' ({})", new Object[] { availableMigrations.size(), personalityName, databaseType });
+        return availableMigrations;
+    }
+
+    /**
+     * Runs the tasks on the executor and returns their results in the order of the tasks. The calling thread runs
+     * every task that no executor thread has started yet, so a task can hand out work to the same executor and
+     * wait for it without running out of threads. Without an executor, all tasks run on the calling thread.
+     */
+    public static <T> List<T> runAll(final ExecutorService executor, final List<Callable<T>> tasks)
+    {
+        final List<FutureTask<T>> futures = Lists.newArrayListWithCapacity(tasks.size());
+        for (final Callable<T> task : tasks) {
+            final FutureTask<T> future = new FutureTask<T>(task);
+            futures.add(future);
+            if (executor != null) {
+                try {
+                    executor.execute(future);
+                }
+                catch (RejectedExecutionException ree) {
+                    LOG.debug("Executor is shut down, running on the calling thread.");
+                }
+            }
+        }
+
+        try {
+            final List<T> results = Lists.newArrayListWithCapacity(futures.size());
+            for (final FutureTask<T> future : futures) {
+                // Does nothing if an executor thread has already started the task.
+                future.run();
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (ExecutionException ee) {
+            throw Throwables.propagate(ee.getCause());
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new MigratoryException(Reason.INTERNAL, ie);
+        }
+        finally {
+            // Tasks that have not started yet are not needed any longer if one of them failed.
+            for (final FutureTask<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static String getKey(final String personalityName, final String databaseType)
+    {
+        return databaseType + ":" + personalityName;
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.WeightedGraph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+import org.jgrapht.traverse.ClosestFirstIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+
+/**
+ * All available migrations of a personality, arranged so that a migration path between two versions can be found.
+ * Migrations that form a single chain of one version steps are kept in an array ordered by start version, all
+ * others in a weighted graph that prefers longer hops over shorter. For the graph, the shortest paths from a version to
+ * all other versions are computed at once and kept. Paths are remembered once they were found.
+ *
+ * A graph is built by the {@link MigrationCatalog} and shared until the available migrations change.
+ */
+public class MigrationGraph
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MigrationGraph.class);
+
+    private final String personalityName;
+    private final Map<String, Migration> migrations;
+
+    private final Migration [] chain;
+    private final WeightedGraph<Integer, MigrationEdge> graph;
+
+    private final ConcurrentMap<String, List<Migration>> paths = new ConcurrentHashMap<String, List<Migration>>();
+    private final ConcurrentMap<Integer, Map<Integer, Migration>> pathTrees = new ConcurrentHashMap<Integer, Map<Integer, Migration>>();
+
+    private int firstVersion = Integer.MAX_VALUE;
+    private int lastVersion = Integer.MIN_VALUE;
+
+    MigrationGraph(final String personalityName, final Map<String, Migration> migrations)
+    {
+        this.personalityName = personalityName;
+        this.migrations = migrations;
+
+        LOG.debug("Found {} available migrations for personality '{}'", migrations.size(), personalityName);
+
+        boolean linear = true;
+        for (Migration migration : migrations.values()) {
+            final int startVersion = migration.getStartVersion();
+            final int endVersion = migration.getEndVersion();
+
+            linear &= (endVersion == startVersion + 1);
+
+            if (startVersion < firstVersion) {
+                firstVersion = startVersion;
+            } else  if (startVersion > lastVersion) {
+                lastVersion = startVersion;
+            }
+            if (endVersion < firstVersion) {
+                firstVersion = endVersion;
+            } else if (endVersion > lastVersion) {
+                lastVersion = endVersion;
+            }
+        }
+
+        LOG.debug("Smallest Vertice: {}, Largest Vertice: {}", firstVersion, lastVersion);
+
+        this.chain = linear ? buildChain(migrations.values()) : null;
+        this.graph = (chain == null) ? buildGraph(migrations.values()) : null;
+    }
+
+    public int getFirstVersion()
+    {
+        return firstVersion;
+    }
+
+    public int getLastVersion()
+    {
+        return lastVersion;
+    }
+
+    /**
+     * Returns true if this graph was built from the given migrations.
+     */
+    boolean isBuiltFrom(final Map<String, Migration> migrations)
+    {
+        return this.migrations == migrations;
+    }
+
+    /**
+     * Returns the migrations that lead from one version to another.
+     *
+     * @throws MigratoryException with reason VALIDATION_FAILED if there is no such path.
+     */
+    public List<Migration> findPath(final int fromVersion, final int toVersion)
+    {
+        final String key = fromVersion + ":" + toVersion;
+        List<Migration> path = paths.get(key);
+        if (path == null) {
+            path = (chain != null) ? findChainPath(fromVersion, toVersion) : findGraphPath(fromVersion, toVersion);
+            paths.putIfAbsent(key, path);
+        }
+        return path;
+    }
+
+    /**
+     * Returns all versions that can be reached from a version, not including the version itself.
+     */
+    public SortedSet<Integer> getReachableVersions(final int fromVersion)
+    {
+        if (chain != null) {
+            if (fromVersion < firstVersion || fromVersion >= lastVersion) {
+                return ImmutableSortedSet.of();
+            }
+            final ImmutableSortedSet.Builder<Integer> builder = ImmutableSortedSet.naturalOrder();
+            for (int version = fromVersion + 1; version <= lastVersion; version++) {
+                builder.add(version);
+            }
+            return builder.build();
+        }
+
+        if (!graph.containsVertex(fromVersion)) {
+            return ImmutableSortedSet.of();
+        }
+        return ImmutableSortedSet.copyOf(getPathTree(fromVersion).keySet());
+    }
+
+    /**
+     * Returns the migrations ordered by start version if they form a single chain of
+     * one version steps from the first to the last version, null otherwise.
+     */
+    private Migration [] buildChain(final Collection<Migration> availableMigrations)
+    {
+        if (availableMigrations.isEmpty() || lastVersion - firstVersion != availableMigrations.size()) {
+            return null;
+        }
+
+        final Migration [] chain = new Migration [availableMigrations.size()];
+        for (Migration migration : availableMigrations) {
+            final int index = migration.getStartVersion() - firstVersion;
+            if (chain[index] != null) {
+                // Two migrations from the same version, there is more than one path.
+                return null;
+            }
+            chain[index] = migration;
+        }
+
+        LOG.debug("Migrations form a single chain, not building a graph");
+        return chain;
+    }
+
+    private WeightedGraph<Integer, MigrationEdge> buildGraph(final Collection<Migration> availableMigrations)
+    {
+        LOG.debug("Building migration graph");
+
+        // build a graph with the available migrations, prefer longer hops over shorter
+        final WeightedGraph<Integer, MigrationEdge> graph = new DirectedWeightedMultigraph<Integer, MigrationEdge>(new MigrationEdgeFactory());
+
+        // Add the migrations as vertexes and edges.
+        for (Migration migration : availableMigrations) {
+            final int startVersion = migration.getStartVersion();
+            final int endVersion = migration.getEndVersion();
+
+            graph.addVertex(startVersion);
+            graph.addVertex(endVersion);
+            MigrationEdge edge = graph.addEdge(startVersion, endVersion);
+            double weight = 1.0 / ((double) (startVersion - endVersion) * (startVersion - endVersion));
+            graph.setEdgeWeight(edge, weight);
+
+            edge.setMigration(migration);
+        }
+        return graph;
+    }
+
+    /**
+     * Plans along a chain of single steps. Every version between the first and the last
+     * version exists and the only way is forward.
+     */
+    private List<Migration> findChainPath(final int fromVersion, final int toVersion)
+    {
+        if (fromVersion < firstVersion || fromVersion > lastVersion) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No starting point for personality '%s', version '%d' not found!", personalityName, fromVersion);
+        }
+
+        if (toVersion < firstVersion || toVersion > lastVersion) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No ending point for personality '%s', version '%d' not found!", personalityName, toVersion);
+        }
+
+        if (toVersion < fromVersion) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No migration path for personality '%s', from '%d' to '%d' found!", personalityName, fromVersion, toVersion);
+        }
+
+        return ImmutableList.copyOf(chain).subList(fromVersion - firstVersion, toVersion - firstVersion);
+    }
+
+    private List<Migration> findGraphPath(final int fromVersion, final int toVersion)
+    {
+        if (!graph.containsVertex(fromVersion)) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No starting point for personality '%s', version '%d' not found!", personalityName, fromVersion);
+        }
+
+        if (!graph.containsVertex(toVersion)) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No ending point for personality '%s', version '%d' not found!", personalityName, toVersion);
+        }
+
+        final Map<Integer, Migration> pathTree = getPathTree(fromVersion);
+        if (fromVersion != toVersion && !pathTree.containsKey(toVersion)) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "No migration path for personality '%s', from '%d' to '%d' found!", personalityName, fromVersion, toVersion);
+        }
+
+        // Walk back from the end to the start along the shortest path tree.
+        final List<Migration> path = Lists.newArrayList();
+        for (int version = toVersion; version != fromVersion; ) {
+            final Migration migration = pathTree.get(version);
+            path.add(migration);
+            version = migration.getStartVersion();
+        }
+        return ImmutableList.copyOf(Lists.reverse(path));
+    }
+
+    /**
+     * Returns the shortest path tree from a version, computed once for all reachable versions. Each reachable
+     * version maps to the last migration on the shortest path to it.
+     */
+    private Map<Integer, Migration> getPathTree(final int fromVersion)
+    {
+        Map<Integer, Migration> pathTree = pathTrees.get(fromVersion);
+        if (pathTree == null) {
+            final Map<Integer, Migration> builtTree = Maps.newHashMap();
+            final ClosestFirstIterator<Integer, MigrationEdge> it = new ClosestFirstIterator<Integer, MigrationEdge>(graph, fromVersion);
+            while (it.hasNext()) {
+                final Integer version = it.next();
+                final MigrationEdge edge = it.getSpanningTreeEdge(version);
+                if (edge != null) {
+                    builtTree.put(version, edge.getMigration());
+                }
+            }
+
+            final Map<Integer, Migration> unmodifiableTree = Collections.unmodifiableMap(builtTree);
+            pathTree = pathTrees.putIfAbsent(fromVersion, unmodifiableTree);
+            if (pathTree == null) {
+                pathTree = unmodifiableTree;
+            }
+        }
+        return pathTree;
+    }
+
+    private static class MigrationEdgeFactory implements EdgeFactory<Integer, MigrationEdge>
+    {
+        @Override
+        public MigrationEdge createEdge(final Integer sourceVertex, final Integer targetVertex)
+        {
+            return new MigrationEdge();
+        }
+    }
+
+    private static class MigrationEdge extends DefaultWeightedEdge
+    {
+        private static final long serialVersionUID = 1L;
+
+        private transient Migration migration;
+
+        public Migration getMigration()
+        {
+            return migration;
+        }
+
+        private void setMigration(Migration migration)
+        {
+            this.migration = migration;
+        }
+    }
+}
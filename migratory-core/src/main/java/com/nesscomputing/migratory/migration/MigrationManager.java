@@ -16,41 +16,22 @@
 package com.nesscomputing.migratory.migration;
 
 
-import java.util.Collection;
 import java.util.Map;
 
-import com.google.common.collect.Maps;
-
+import com.nesscomputing.migratory.AbstractMigratoryContext;
 import com.nesscomputing.migratory.MigratoryContext;
-import com.nesscomputing.migratory.locator.MigrationLocator;
-import com.nesscomputing.migratory.metadata.MetadataManager;
 
 public class MigrationManager
 {
-    private final Map<String, Migration> availableMigrations = Maps.newHashMap();
+    private final MigrationCatalog migrationCatalog;
+    private final Map<String, Migration> availableMigrations;
     private final String personalityName;
 
     public MigrationManager(final MigratoryContext migratoryContext, final String personalityName)
     {
         this.personalityName = personalityName;
-
-        final String databaseType = migratoryContext.getDbSupport().getDatabaseType();
-        final Collection<MigrationLocator> migrationLocators = migratoryContext.getLocators();
-
-        // Find all available migrations for this personality with this database type.
-        for (MigrationLocator loader : migrationLocators) {
-            // Load the internal migrations only from a loader that knows how to find them.
-                if (MetadataManager.METADATA_MIGRATION_NAME.equals(personalityName)) {
-                    if (loader.isSystemLoader()) {
-                        loader.contributeMigrations(availableMigrations, personalityName, databaseType);
-                    }
-                }
-                else {
-                    if (!loader.isSystemLoader()) {
-                        loader.contributeMigrations(availableMigrations, personalityName, databaseType);
-                    }
-                }
-        }
+        this.migrationCatalog = AbstractMigratoryContext.adapt(migratoryContext).getMigrationCatalog();
+        this.availableMigrations = migrationCatalog.getMigrations(personalityName);
     }
 
     public Map<String, Migration> getMigrations()
@@ -58,9 +39,16 @@ public class MigrationManager
         return availableMigrations;
     }
 
+    /**
+     * Returns the graph of the available migrations, shared with all other users of the personality.
+     */
+    public MigrationGraph getMigrationGraph()
+    {
+        return migrationCatalog.getMigrationGraph(personalityName);
+    }
+
     public String getPersonalityName()
     {
         return personalityName;
     }
 }
-
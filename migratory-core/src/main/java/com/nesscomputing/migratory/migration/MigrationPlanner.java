@@ -17,26 +17,12 @@ package com.nesscomputing.migratory.migration;
 
 
 import java.util.List;
-import java.util.Map;
+import java.util.SortedSet;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
-
-import org.jgrapht.EdgeFactory;
-import org.jgrapht.WeightedGraph;
-import org.jgrapht.alg.DijkstraShortestPath;
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.DirectedWeightedMultigraph;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.nesscomputing.migratory.MigratoryException;
-import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.google.common.collect.ImmutableSortedSet;
 
 public class MigrationPlanner
 {
-    private static final Logger LOG = LoggerFactory.getLogger(MigrationPlanner.class);
-
     public enum MigrationDirection
     {
         UNPLANNED, FORWARD, BACK, DO_NOTHING;
@@ -49,6 +35,7 @@ public class MigrationPlanner
     private final int requestedVersion;
 
     private boolean planned = false;
+    private MigrationGraph migrationGraph = null;
 
     private MigrationDirection migrationStrategy = MigrationDirection.UNPLANNED;
     private List<Migration> migrations = null;
@@ -73,57 +60,15 @@ public class MigrationPlanner
         if (!planned) {
             planned = true;
 
-            final Map<String, Migration> availableMigrations = migrationManager.getMigrations();
-            LOG.debug("Found {} available migrations, building migration graph", availableMigrations.size());
-
-            // build a graph with the available migrations, prefer longer hops over shorter
-            final WeightedGraph<Integer, MigrationEdge> graph = new DirectedWeightedMultigraph<Integer, MigrationEdge>(new MigrationEdgeFactory());
-
-            // Add the migrations as vertexes and edges.
-            for (Migration migration : availableMigrations.values()) {
-                final int startVersion = migration.getStartVersion();
-                final int endVersion = migration.getEndVersion();
-
-                graph.addVertex(startVersion);
-                graph.addVertex(endVersion);
-                MigrationEdge edge = graph.addEdge(startVersion, endVersion);
-                double weight = 1.0 / ((double) (startVersion - endVersion) * (startVersion - endVersion));
-                graph.setEdgeWeight(edge, weight);
-
-
-                edge.setMigration(migration);
-
-                if (startVersion < firstVersion) {
-                    firstVersion = startVersion;
-                } else  if (startVersion > lastVersion) {
-                    lastVersion = startVersion;
-                }
-                if (endVersion < firstVersion) {
-                    firstVersion = endVersion;
-                } else if (endVersion > lastVersion) {
-                    lastVersion = endVersion;
-                }
-            }
-
-            LOG.debug("Smallest Vertice: {}, Largest Vertice: {}", firstVersion, lastVersion);
+            this.migrationGraph = migrationManager.getMigrationGraph();
+            this.firstVersion = migrationGraph.getFirstVersion();
+            this.lastVersion = migrationGraph.getLastVersion();
 
             // find a way from "currentVersion" to "requestedVersion"
             // return the list
             this.targetVersion = (requestedVersion == Integer.MAX_VALUE) ? lastVersion : requestedVersion;
 
-            if (!graph.containsVertex(currentVersion)) {
-                throw new MigratoryException(Reason.VALIDATION_FAILED, "No starting point for personality '%s', version '%d' not found!", personalityName, currentVersion);
-            }
-
-            if (!graph.containsVertex(targetVersion)) {
-                throw new MigratoryException(Reason.VALIDATION_FAILED, "No ending point for personality '%s', version '%d' not found!", personalityName, targetVersion);
-            }
-
-            final List<MigrationEdge> edges = new DijkstraShortestPath<Integer, MigrationEdge>(graph, currentVersion, targetVersion).getPathEdgeList();
-
-            if (edges == null) {
-                throw new MigratoryException(Reason.VALIDATION_FAILED, "No migration path for personality '%s', from '%d' to '%d' found!", personalityName, currentVersion, targetVersion);
-            }
+            final List<Migration> path = migrationGraph.findPath(currentVersion, targetVersion);
 
             if (currentVersion < targetVersion) {
                 migrationStrategy = MigrationDirection.FORWARD;
@@ -135,12 +80,7 @@ public class MigrationPlanner
                 migrationStrategy = MigrationDirection.DO_NOTHING;
             }
 
-            this.migrations = Lists.transform(edges, new Function<MigrationEdge, Migration>() {
-                @Override
-                public Migration apply(final MigrationEdge edge) {
-                    return edge.getMigration();
-                }
-            });
+            this.migrations = path;
         }
     }
 
@@ -154,6 +94,15 @@ public class MigrationPlanner
         return migrations;
     }
 
+    /**
+     * Returns all versions that can be reached from the current version. Available even if
+     * planning failed because the requested version can not be reached.
+     */
+    public SortedSet<Integer> getReachableVersions()
+    {
+        return migrationGraph == null ? ImmutableSortedSet.<Integer>of() : migrationGraph.getReachableVersions(currentVersion);
+    }
+
     public int getTargetVersion()
     {
         return targetVersion;
@@ -174,32 +123,6 @@ public class MigrationPlanner
         return personalityName;
     }
 
-    private static class MigrationEdgeFactory implements EdgeFactory<Integer, MigrationEdge>
-    {
-        @Override
-        public MigrationEdge createEdge(final Integer sourceVertex, final Integer targetVertex)
-        {
-            return new MigrationEdge();
-        }
-    }
-
-    private static class MigrationEdge extends DefaultWeightedEdge
-    {
-        private static final long serialVersionUID = 1L;
-
-        private transient Migration migration;
-
-        public Migration getMigration()
-        {
-            return migration;
-        }
-
-        private void setMigration(Migration migration)
-        {
-            this.migration = migration;
-        }
-    }
-
     @Override
     public String toString()
     {
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration.sql;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Properties;
+
+import com.google.common.base.Charsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nesscomputing.migratory.loader.StampedMigrationLoader;
+
+/**
+ * Keeps the checksums of migration scripts in a local directory, so that a script that has not changed
+ * since it was last seen must not be read again to compute its checksum. Scripts are identified by their URI,
+ * the encoding used to read them and the stamp that the loader reports for them. Scripts that the loader can not
+ * stamp are never cached.
+ *
+ * A cache without a directory does nothing.
+ */
+public class ChecksumCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ChecksumCache.class);
+
+    /** Must be changed whenever the checksum format changes. */
+    private static final String CACHE_VERSION = "2";
+
+    private final File cacheDir;
+    private final String encoding;
+    private final StampedMigrationLoader loader;
+
+    public ChecksumCache(final File cacheDir, final String encoding, final StampedMigrationLoader loader)
+    {
+        this.cacheDir = cacheDir;
+        this.encoding = encoding;
+        this.loader = loader;
+
+        if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            LOG.warn("Could not create checksum cache directory {}, not caching checksums!", cacheDir);
+        }
+    }
+
+    /**
+     * Returns the cached checksum for a script or null if the script is not in the cache or has changed.
+     */
+    public String getChecksum(final URI location)
+    {
+        final String fingerprint = fingerprintFor(location);
+        if (fingerprint == null) {
+            return null;
+        }
+
+        final File cacheFile = getCacheFile(location);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        final Properties props = new Properties();
+        try {
+            final InputStream is = new FileInputStream(cacheFile);
+            try {
+                props.load(is);
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch (IOException ioe) {
+            LOG.warn("Could not read checksum cache file {}", cacheFile, ioe);
+            return null;
+        }
+
+        if (location.toString().equals(props.getProperty("location")) && fingerprint.equals(props.getProperty("fingerprint"))) {
+            LOG.trace("Found cached checksum for {}", location);
+            return props.getProperty("checksum");
+        }
+        return null;
+    }
+
+    /**
+     * Records the checksum for a script.
+     */
+    public void putChecksum(final URI location, final String checksum)
+    {
+        final String fingerprint = fingerprintFor(location);
+        if (fingerprint == null) {
+            return;
+        }
+
+        final Properties props = new Properties();
+        props.setProperty("location", location.toString());
+        props.setProperty("fingerprint", fingerprint);
+        props.setProperty("checksum", checksum);
+
+        final File cacheFile = getCacheFile(location);
+        try {
+            // Write to a temporary file first, concurrent readers must never see a partial cache file.
+            final File tmpFile = File.createTempFile("checksum", ".tmp", cacheDir);
+            try {
+                final OutputStream os = new FileOutputStream(tmpFile);
+                try {
+                    props.store(os, null);
+                }
+                finally {
+                    os.close();
+                }
+
+                if (!tmpFile.renameTo(cacheFile) && !(cacheFile.delete() && tmpFile.renameTo(cacheFile))) {
+                    LOG.warn("Could not write checksum cache file {}", cacheFile);
+                }
+            }
+            finally {
+                if (tmpFile.exists() && !tmpFile.delete()) {
+                    LOG.debug("Could not remove {}", tmpFile);
+                }
+            }
+        }
+        catch (IOException ioe) {
+            LOG.warn("Could not write checksum cache file {}", cacheFile, ioe);
+        }
+    }
+
+    private String fingerprintFor(final URI location)
+    {
+        if (cacheDir == null || !cacheDir.isDirectory()) {
+            return null;
+        }
+
+        final String stamp = loader.stampFor(location);
+        if (stamp == null) {
+            return null;
+        }
+
+        return CACHE_VERSION + ":" + encoding + ":" + stamp;
+    }
+
+    private File getCacheFile(final URI location)
+    {
+        final byte [] hash = Checksums.newSha1().digest(location.toString().getBytes(Charsets.UTF_8));
+        return new File(cacheDir, Checksums.toHex(hash) + ".properties");
+    }
+}
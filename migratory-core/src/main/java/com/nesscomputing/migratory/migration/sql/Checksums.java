@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration.sql;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+
+/**
+ * Helpers for the SHA-1 checksums of migration scripts.
+ *
+ * Older versions of Migratory recorded checksums with the leading zero of each byte dropped ("legacy" format).
+ * Checksums are now always written as 40 hex characters, a recorded legacy checksum can still be matched
+ * against a current checksum.
+ */
+public final class Checksums
+{
+    private static final char [] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int SHA1_HEX_LENGTH = 40;
+
+    private Checksums()
+    {
+    }
+
+    /**
+     * Returns a new SHA-1 digest. Digests are not thread safe, each caller must use its own.
+     */
+    public static MessageDigest newSha1()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new MigratoryException(Reason.INTERNAL, nsae);
+        }
+    }
+
+    /**
+     * Formats a digest as lower case hex string with two characters per byte.
+     */
+    public static String toHex(final byte [] digest)
+    {
+        final char [] result = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+        return new String(result);
+    }
+
+    /**
+     * Converts a SHA-1 hex checksum into the legacy format, which dropped the leading zero of each byte.
+     * Returns null if the checksum is not a SHA-1 hex checksum.
+     */
+    public static String toLegacyHex(final String checksum)
+    {
+        if (checksum == null || checksum.length() != SHA1_HEX_LENGTH) {
+            return null;
+        }
+
+        final StringBuilder result = new StringBuilder(SHA1_HEX_LENGTH);
+        for (int i = 0; i < SHA1_HEX_LENGTH; i += 2) {
+            final char high = checksum.charAt(i);
+            if (high != '0') {
+                result.append(high);
+            }
+            result.append(checksum.charAt(i + 1));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns true if a recorded checksum matches the current checksum of a migration. If legacy
+     * checksums are accepted, a recorded checksum in the legacy format matches as well.
+     */
+    public static boolean matches(final String currentChecksum, final String recordedChecksum, final boolean acceptLegacy)
+    {
+        if (StringUtils.equals(currentChecksum, recordedChecksum)) {
+            return true;
+        }
+        return acceptLegacy && recordedChecksum != null && recordedChecksum.equals(toLegacyHex(currentChecksum));
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration.sql;
+
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+
+/**
+ * Computes the SHA-1 digest of everything read through this reader. The digest covers the UTF-8 encoding
+ * of the characters, so it matches the digest of the same text as a String encoded with String#getBytes(UTF-8).
+ */
+class DigestReader extends FilterReader
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final MessageDigest digest;
+    private final byte [] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+
+    private char highSurrogate = 0;
+    private boolean eof = false;
+    private byte [] sha1 = null;
+
+    DigestReader(final Reader reader)
+    {
+        super(reader);
+        this.digest = Checksums.newSha1();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final int c = super.read();
+        if (c == -1) {
+            eof = true;
+        }
+        else {
+            update((char) c);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(final char [] cbuf, final int off, final int len) throws IOException
+    {
+        final int count = super.read(cbuf, off, len);
+        if (count == -1) {
+            eof = true;
+        }
+        else {
+            for (int i = off; i < off + count; i++) {
+                update(cbuf[i]);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException
+    {
+        throw new IOException("skip() is not supported by the digest reader!");
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Reads all remaining characters.
+     */
+    DigestReader drain()
+    {
+        try {
+            final char [] chars = new char[BUFFER_SIZE];
+            while (read(chars, 0, chars.length) != -1) {
+                // Only the digest is interesting.
+            }
+            return this;
+        }
+        catch (IOException ioe) {
+            throw new MigratoryException(Reason.INTERNAL, ioe, "Could not read script");
+        }
+    }
+
+    /**
+     * Returns the SHA-1 digest of all characters read. Only available after the end of the stream was reached.
+     */
+    byte [] getSha1()
+    {
+        if (!eof) {
+            throw new MigratoryException(Reason.INTERNAL, "Digest requested before the end of the stream was reached!");
+        }
+
+        if (sha1 == null) {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                addByte('?');
+            }
+            digest.update(buffer, 0, bufferPos);
+            bufferPos = 0;
+            sha1 = digest.digest();
+        }
+        return sha1;
+    }
+
+    private void update(final char c)
+    {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                encode(Character.toCodePoint(high, c));
+                return;
+            }
+            // Unpaired surrogates are encoded as '?', the same as String#getBytes does.
+            addByte('?');
+        }
+
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            addByte('?');
+        }
+        else {
+            encode(c);
+        }
+    }
+
+    private void encode(final int codePoint)
+    {
+        if (codePoint < 0x80) {
+            addByte(codePoint);
+        }
+        else if (codePoint < 0x800) {
+            addByte(0xc0 | (codePoint >> 6));
+            addByte(0x80 | (codePoint & 0x3f));
+        }
+        else if (codePoint < 0x10000) {
+            addByte(0xe0 | (codePoint >> 12));
+            addByte(0x80 | ((codePoint >> 6) & 0x3f));
+            addByte(0x80 | (codePoint & 0x3f));
+        }
+        else {
+            addByte(0xf0 | (codePoint >> 18));
+            addByte(0x80 | ((codePoint >> 12) & 0x3f));
+            addByte(0x80 | ((codePoint >> 6) & 0x3f));
+            addByte(0x80 | (codePoint & 0x3f));
+        }
+    }
+
+    private void addByte(final int b)
+    {
+        if (bufferPos == BUFFER_SIZE) {
+            digest.update(buffer, 0, bufferPos);
+            bufferPos = 0;
+        }
+        buffer[bufferPos++] = (byte) b;
+    }
+}
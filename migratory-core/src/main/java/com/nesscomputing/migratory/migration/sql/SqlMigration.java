@@ -16,55 +16,75 @@
 package com.nesscomputing.migratory.migration.sql;
 
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
-import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
 
 import org.skife.jdbi.v2.Handle;
 
+import com.nesscomputing.migratory.AbstractMigratoryContext;
 import com.nesscomputing.migratory.MigratoryContext;
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.dbsupport.DbSupportFactory;
 import com.nesscomputing.migratory.information.MigrationInformation;
 import com.nesscomputing.migratory.jdbi.MigratoryDBI;
 import com.nesscomputing.migratory.migration.Migration;
 import com.nesscomputing.migratory.migration.MigrationType;
 
 /**
- * Database migration based on a sql file.
+ * Database migration based on a sql file. Only the checksum of the file is computed when the migration is
+ * created, the file is read again and parsed when the migration is executed. The file is streamed from the loader
+ * in both cases, only the statement that is currently executed is kept in memory. Migrations created from a
+ * string execute that string.
  */
 public class SqlMigration extends Migration
 {
-    private static final MessageDigest SHA_1;
+    private final MigratoryContext migratoryContext;
+    private final URI location;
+    private final MigrationInformation migrationInformation;
+    private final String checksum;
+    private final String stamp;
+    private final String rawSql;
+
+    /**
+     * Creates a migration for a script. The checksum is taken from the checksum cache if possible, otherwise
+     * the script is loaded to compute it.
+     */
+    public SqlMigration(final MigratoryContext migratoryContext, final String personalityName, final URI location, final String scriptName)
+    {
+        super(MigrationType.SQL, personalityName, scriptName);
 
-    static {
-        try {
-            SHA_1 = MessageDigest.getInstance("SHA-1");
+        this.migratoryContext = migratoryContext;
+        this.location = location;
+        this.migrationInformation = migratoryContext.getInformationStrategy().getInformation(location);
+        this.rawSql = null;
+        // Taken before the checksum is computed, a change in between fails the migration instead of running unnoticed.
+        this.stamp = migratoryContext.getLoaderManager().stampFor(location);
+
+        final ChecksumCache checksumCache = AbstractMigratoryContext.adapt(migratoryContext).getChecksumCache();
+        final String cachedChecksum = checksumCache.getChecksum(location);
+        if (cachedChecksum != null) {
+            this.checksum = cachedChecksum;
         }
-        catch (NoSuchAlgorithmException nsae) {
-            throw new ExceptionInInitializerError(nsae);
+        else {
+            this.checksum = computeChecksum();
+            checksumCache.putChecksum(location, checksum);
         }
     }
 
-    private final URI location;
-    private final MigrationInformation migrationInformation;
-    private final SqlScript sqlScript;
-    private final String checksum;
-
     public SqlMigration(final MigratoryContext migratoryContext, final String personalityName, final URI location, final String scriptName, final String rawSql)
     {
         super(MigrationType.SQL, personalityName, scriptName);
 
+        this.migratoryContext = migratoryContext;
         this.location = location;
         this.migrationInformation = migratoryContext.getInformationStrategy().getInformation(location);
-        this.sqlScript = migratoryContext.getDbSupport().sqlScriptFor(rawSql);
-        this.checksum = sha1For(rawSql);
-
-        // Register the SQL scripts with the DBI loader
-        for(final SqlStatement sqlStatement : sqlScript.getSqlStatements()) {
-            final MigratoryDBI dbi = migrationInformation.isNeedsRoot() ? migratoryContext.getRootDBI() : migratoryContext.getDBI();
-            dbi.addTemplate(getIdentifier(sqlStatement.getCount()), sqlStatement.getSql());
-        }
+        this.rawSql = rawSql;
+        this.stamp = null;
+        this.checksum = Checksums.toHex(new DigestReader(new StringReader(rawSql)).drain().getSha1());
     }
 
     @Override
@@ -103,11 +123,48 @@ public class SqlMigration extends Migration
         return migrationInformation.isNeedsRoot();
     }
 
+    /**
+     * Migrations created from a string are always current, all others are current as long as the loader
+     * reports the same stamp as when the migration was created.
+     */
+    @Override
+    public boolean isCurrent()
+    {
+        return rawSql != null || (stamp != null && stamp.equals(migratoryContext.getLoaderManager().stampFor(location)));
+    }
+
     @Override
     public void migrate(final Handle handle)
     {
-        for (SqlStatement sqlStatement : sqlScript.getSqlStatements()) {
-            handle.createStatement(getIdentifier(sqlStatement.getCount())).execute();
+        // Refuse to run a script that was changed since the migration was planned. Scripts that the loader can
+        // not stamp are only checked by the checksum that is computed while they are executed.
+        if (stamp != null && !stamp.equals(migratoryContext.getLoaderManager().stampFor(location))) {
+            throw new MigratoryException(Reason.VALIDATION_FAILED, "Migration '%s' was changed after it was loaded!", location);
+        }
+
+        final MigratoryDBI dbi = migrationInformation.isNeedsRoot() ? migratoryContext.getRootDBI() : migratoryContext.getDBI();
+        final Reader reader = openSql();
+        try {
+            // The checksum is computed again in the same pass as the statements are parsed and executed.
+            final SqlScript sqlScript = DbSupportFactory.adapt(migratoryContext.getDbSupport()).sqlScriptFor(reader);
+
+            for (final SqlStatement sqlStatement : sqlScript) {
+                final String identifier = getIdentifier(sqlStatement.getCount());
+                dbi.addTemplate(identifier, sqlStatement.getSql());
+                try {
+                    handle.createStatement(identifier).execute();
+                }
+                finally {
+                    dbi.removeTemplate(identifier);
+                }
+            }
+
+            if (!checksum.equals(Checksums.toHex(sqlScript.getSha1()))) {
+                throw new MigratoryException(Reason.VALIDATION_FAILED, "Migration '%s' was changed while it was executed!", location);
+            }
+        }
+        finally {
+            Closeables.closeQuietly(reader);
         }
     }
 
@@ -116,23 +173,33 @@ public class SqlMigration extends Migration
         return migrationInformation.isTemplate();
     }
 
-    private String getIdentifier(final int count)
+    private String computeChecksum()
     {
-        return "@" + (isTemplate() ? "T" : "R") + count + "@" + location;
+        final Reader reader = openSql();
+        try {
+            return Checksums.toHex(new DigestReader(reader).drain().getSha1());
+        }
+        finally {
+            Closeables.closeQuietly(reader);
+        }
     }
 
-    private String sha1For(String rawSql)
+    private Reader openSql()
     {
-        final byte[] data = rawSql.getBytes(Charsets.UTF_8);
+        if (rawSql != null) {
+            return new StringReader(rawSql);
+        }
 
-        SHA_1.update(data, 0, data.length);
-        byte[] sha1hash = SHA_1.digest();
-        StringBuilder result = new StringBuilder();
-        for (byte sha1byte : sha1hash) {
-            result.append(Integer.toHexString(0xff & sha1byte));
+        final Reader reader = migratoryContext.getLoaderManager().openFile(location);
+        if (reader == null) {
+            throw new MigratoryException(Reason.INTERNAL, "Could not load migration from '%s'!", location);
         }
+        return reader;
+    }
 
-        return result.toString();
+    private String getIdentifier(final int count)
+    {
+        return "@" + (isTemplate() ? "T" : "R") + count + "@" + location;
     }
 
     @Override
@@ -21,9 +21,10 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Collection;
-import java.util.List;
+import java.util.Iterator;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -35,8 +36,11 @@ import com.nesscomputing.migratory.MigratoryException.Reason;
 /**
  * Sql script containing a series of statements terminated by semi-columns (;). Single-line (--) and multi-line (/* * /)
  * comments are stripped and ignored.
+ *
+ * A script created from a reader is parsed while its statements are iterated, so only the current statement
+ * is kept in memory. Such a script can only be iterated once.
  */
-public class SqlScript
+public class SqlScript implements Iterable<SqlStatement>
 {
     private static final Logger LOG = LoggerFactory.getLogger(SqlScript.class);
 
@@ -46,17 +50,31 @@ public class SqlScript
     protected static final String DEFAULT_STATEMENT_DELIMITER = ";";
 
     /**
-     * The sql statements contained in this script.
+     * The sql statements contained in this script. Null until a script created from a reader has been read completely.
      */
-    private final Collection<SqlStatement> sqlStatements;
+    private Collection<SqlStatement> sqlStatements;
+
+    private final DigestReader digestReader;
+    private boolean consumed = false;
 
     public SqlScript(final String rawSql)
     {
-        this.sqlStatements = parse(rawSql);
+        this(new StringReader(rawSql));
+    }
+
+    /**
+     * Creates a sql script that reads its statements from the reader. The reader is read lazily and
+     * is not closed by the script.
+     */
+    public SqlScript(final Reader reader)
+    {
+        this.digestReader = new DigestReader(reader);
+        this.sqlStatements = null;
     }
 
     public SqlScript(final Collection<SqlStatement> sqlStatements)
     {
+        this.digestReader = null;
         this.sqlStatements = sqlStatements;
     }
 
@@ -65,112 +83,40 @@ public class SqlScript
      */
     public Collection<SqlStatement> getSqlStatements()
     {
+        if (sqlStatements == null) {
+            sqlStatements = ImmutableList.copyOf(iterator());
+        }
         return sqlStatements;
     }
 
-    private List<SqlStatement> parse(final String rawSql)
+    /**
+     * Returns the statements of this script. For a script created from a reader, the statements are
+     * parsed while iterating and this method may only be called once.
+     */
+    @Override
+    public Iterator<SqlStatement> iterator()
     {
-        try {
-            Reader reader = new StringReader(rawSql);
-            final List<String> lines = readLines(reader);
-            return linesToStatements(lines);
-        }
-        catch (IOException ioe) {
-            throw new MigratoryException(Reason.INTERNAL, ioe, "Could not read String '%s'", rawSql);
+        if (sqlStatements != null) {
+            return sqlStatements.iterator();
         }
-    }
-
-    List<String> readLines(final Reader reader) throws IOException
-    {
-        final List<String> lines = Lists.newArrayList();
 
-        final BufferedReader bufferedReader = new BufferedReader(reader);
-        String line;
-
-        boolean inMultilineComment = false;
-        while ((line = StringUtils.trim(bufferedReader.readLine())) != null)
-        {
-            if (!inMultilineComment) {
-                if (isCommentDirective(line) || line.startsWith("--")) {
-                    LOG.trace("Ignored '{}'", line);
-                    continue;
-                }
-                else if (line.contains("--")) {
-                    lines.add(StringUtils.trim(line.substring(0, line.indexOf("--"))));
-                }
-                else if (line.startsWith("/*")) {
-                    inMultilineComment = true;
-                    LOG.trace("Start Multiline ignore at  '{}'", line);
-                    if (line.endsWith("*/")) {
-                    	LOG.trace("...and then immediately ending it");
-                    	inMultilineComment = false;
-                    }
-                    continue;
-                }
-                else {
-                    LOG.trace("Adding '{}' to output", line);
-                    lines.add(line);
-                }
-            }
-            else {
-                if (line.endsWith("*/")) {
-                    LOG.trace("Ending Multiline ignore at  '{}'", line);
-                    inMultilineComment = false;
-                }
-            }
+        if (consumed) {
+            throw new MigratoryException(Reason.INTERNAL, "SQL script was already read!");
         }
-
-        return lines;
+        consumed = true;
+        return new StatementIterator(new BufferedReader(digestReader));
     }
 
     /**
-     * Turns these lines in a series of statements.
+     * Returns the SHA-1 digest of the script source, computed while the statements were read. Only
+     * available after all statements of a script created from a reader or a String were read.
      */
-    List<SqlStatement> linesToStatements(List<String> lines)
+    public byte [] getSha1()
     {
-        final List<SqlStatement> statements = Lists.newArrayList();
-        final StringBuilder statementSql = new StringBuilder();
-        int count = 0;
-
-        String delimiter = DEFAULT_STATEMENT_DELIMITER;
-
-        for (final String line : lines)
-        {
-            if (StringUtils.isBlank(line)) {
-                continue;
-            }
-
-            if (statementSql.length() > 0) {
-                statementSql.append(" ");
-            }
-            statementSql.append(line);
-
-            final String oldDelimiter = delimiter;
-            delimiter = changeDelimiterIfNecessary(statementSql.toString(), line, delimiter);
-            if (!StringUtils.equals(delimiter, oldDelimiter) && isDelimiterChangeExplicit()) {
-                statementSql.setLength(0);
-                continue; // for
-            }
-
-            if (StringUtils.endsWith(line, delimiter)) {
-                // Trim off the delimiter at the end.
-                statementSql.setLength(statementSql.length() - delimiter.length());
-                statements.add(new SqlStatement(count++, StringUtils.trimToEmpty(statementSql.toString())));
-                LOG.debug("Found statement: {}", statementSql);
-
-                if (!isDelimiterChangeExplicit()) {
-                    delimiter = DEFAULT_STATEMENT_DELIMITER;
-                }
-                statementSql.setLength(0);
-            }
+        if (digestReader == null) {
+            throw new MigratoryException(Reason.INTERNAL, "SQL script was not created from a script source!");
         }
-
-        // Catch any statements not followed by delimiter.
-        if (statementSql.length() > 0) {
-            statements.add(new SqlStatement(count++, StringUtils.trimToEmpty(statementSql.toString())));
-        }
-
-        return statements;
+        return digestReader.getSha1();
     }
 
     /**
@@ -182,6 +128,16 @@ public class SqlScript
         return delimiter;
     }
 
+    /**
+     * Called with the statement that is currently assembled. The default copies it into a String and calls
+     * {@link #changeDelimiterIfNecessary(String, String, String)}. Scripts that only need to look at some
+     * statements can override this to avoid the copy.
+     */
+    protected String changeDelimiterIfNecessary(final CharSequence statement, final String line, final String delimiter)
+    {
+        return changeDelimiterIfNecessary(statement.toString(), line, delimiter);
+    }
+
     /**
      * @return {@code true} if this database uses an explicit delimiter change statement. {@code false} if a delimiter
      *         change is implied by certain statements.
@@ -197,4 +153,111 @@ public class SqlScript
     protected boolean isCommentDirective(String line) {
         return false;
     }
+
+    /**
+     * Reads the script line by line and assembles the lines into statements.
+     */
+    private class StatementIterator extends AbstractIterator<SqlStatement>
+    {
+        private final BufferedReader reader;
+        private final StringBuilder statementSql = new StringBuilder();
+
+        private String delimiter = DEFAULT_STATEMENT_DELIMITER;
+        private boolean inMultilineComment = false;
+        private int count = 0;
+
+        private StatementIterator(final BufferedReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        protected SqlStatement computeNext()
+        {
+            String line;
+            while ((line = readLine()) != null) {
+                if (statementSql.length() > 0) {
+                    statementSql.append(" ");
+                }
+                statementSql.append(line);
+
+                final String oldDelimiter = delimiter;
+                delimiter = changeDelimiterIfNecessary(statementSql, line, delimiter);
+                if (!StringUtils.equals(delimiter, oldDelimiter) && isDelimiterChangeExplicit()) {
+                    statementSql.setLength(0);
+                    continue; // while
+                }
+
+                if (StringUtils.endsWith(line, delimiter)) {
+                    // Trim off the delimiter at the end.
+                    statementSql.setLength(statementSql.length() - delimiter.length());
+                    LOG.debug("Found statement: {}", statementSql);
+
+                    if (!isDelimiterChangeExplicit()) {
+                        delimiter = DEFAULT_STATEMENT_DELIMITER;
+                    }
+                    return nextStatement();
+                }
+            }
+
+            // Catch any statements not followed by delimiter.
+            if (statementSql.length() > 0) {
+                return nextStatement();
+            }
+
+            return endOfData();
+        }
+
+        private SqlStatement nextStatement()
+        {
+            final SqlStatement sqlStatement = new SqlStatement(count++, StringUtils.trimToEmpty(statementSql.toString()));
+            statementSql.setLength(0);
+            return sqlStatement;
+        }
+
+        /**
+         * Returns the next line that contains SQL with all comments stripped or null if the end of the script was reached.
+         */
+        private String readLine()
+        {
+            try {
+                String line;
+                while ((line = StringUtils.trim(reader.readLine())) != null) {
+                    if (!inMultilineComment) {
+                        if (isCommentDirective(line) || line.startsWith("--")) {
+                            LOG.trace("Ignored '{}'", line);
+                            continue;
+                        }
+                        else if (line.contains("--")) {
+                            line = StringUtils.trim(line.substring(0, line.indexOf("--")));
+                        }
+                        else if (line.startsWith("/*")) {
+                            inMultilineComment = true;
+                            LOG.trace("Start Multiline ignore at  '{}'", line);
+                            if (line.endsWith("*/")) {
+                                LOG.trace("...and then immediately ending it");
+                                inMultilineComment = false;
+                            }
+                            continue;
+                        }
+
+                        if (StringUtils.isNotBlank(line)) {
+                            LOG.trace("Adding '{}' to output", line);
+                            return line;
+                        }
+                    }
+                    else {
+                        if (line.endsWith("*/")) {
+                            LOG.trace("Ending Multiline ignore at  '{}'", line);
+                            inMultilineComment = false;
+                        }
+                    }
+                }
+                return null;
+            }
+            catch (IOException ioe) {
+                throw new MigratoryException(Reason.INTERNAL, ioe, "Could not read SQL script");
+            }
+        }
+    }
 }
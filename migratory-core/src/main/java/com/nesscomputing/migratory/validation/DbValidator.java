@@ -19,22 +19,31 @@ package com.nesscomputing.migratory.validation;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.lang3.StringUtils;
-
 import com.nesscomputing.migratory.metadata.MetadataInfo;
 import com.nesscomputing.migratory.migration.Migration;
 import com.nesscomputing.migratory.migration.MigrationManager;
 import com.nesscomputing.migratory.migration.MigrationResult.MigrationState;
+import com.nesscomputing.migratory.migration.sql.Checksums;
 import com.nesscomputing.migratory.validation.ValidationResult.ValidationStatus;
 
 
 public class DbValidator
 {
     private final MigrationManager migrationManager;
+    private final boolean acceptLegacyChecksums;
 
+    /**
+     * Creates a validator that also accepts checksums recorded in the legacy format.
+     */
     public DbValidator(final MigrationManager migrationManager)
+    {
+        this(migrationManager, true);
+    }
+
+    public DbValidator(final MigrationManager migrationManager, final boolean acceptLegacyChecksums)
     {
         this.migrationManager = migrationManager;
+        this.acceptLegacyChecksums = acceptLegacyChecksums;
     }
 
     public ValidationResult validate(final List<MetadataInfo> metadataInfoList)
@@ -48,7 +57,7 @@ public class DbValidator
                 builder.add(ValidationStatus.NOT_FOUND, metadataInfo, "");
             }
             else {
-                if (!StringUtils.equals(matchingMigration.getChecksum(), metadataInfo.getChecksum())) {
+                if (!Checksums.matches(matchingMigration.getChecksum(), metadataInfo.getChecksum(), acceptLegacyChecksums)) {
                     builder.add(ValidationStatus.BAD_CHECKSUM, metadataInfo, matchingMigration.getChecksum());
                 }
                 if (matchingMigration.getType() != metadataInfo.getType()) {
@@ -130,5 +130,19 @@ public class TestMigratoryHistory extends AbstractMigratoryTest
         // And the metadata personality
         Assert.assertEquals(0, history.size());
     }
-}
 
+    @Test
+    public void testKnownAndUnknown()
+    {
+        final Map<String, List<MetadataInfo>> history = migratory.dbHistory(ImmutableList.of("p3", "p2", "p4"));
+
+        Assert.assertNotNull(history);
+        Assert.assertEquals(1, history.size());
+
+        List<MetadataInfo> p2Info = history.get("p2");
+        Assert.assertNotNull(p2Info);
+        Assert.assertEquals(2, p2Info.size());
+        Assert.assertEquals(1, p2Info.get(0).getEndVersion());
+        Assert.assertEquals(2, p2Info.get(1).getEndVersion());
+    }
+}
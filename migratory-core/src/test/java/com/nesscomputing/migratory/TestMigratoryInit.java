@@ -16,13 +16,17 @@
 package com.nesscomputing.migratory;
 
 
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
 import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
 
 import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.metadata.MetadataInfo;
 
 public class TestMigratoryInit extends AbstractMigratoryTest
 {
@@ -44,6 +48,37 @@ public class TestMigratoryInit extends AbstractMigratoryTest
         Assert.assertNull(migratory.dbInit());
     }
 
+    @Test
+    public final void testUpgrade()
+    {
+        Assert.assertNotNull(migratory.dbInit());
+        Assert.assertTrue(tableExists("migratory_metadata_lock"));
+
+        // Turn the metadata table back into one that was created before version 2 of the metadata.
+        execute("DROP TABLE migratory_metadata_lock");
+        execute("DELETE FROM migratory_metadata WHERE personality_name = 'migratory_metadata' AND end_version = 2");
+
+        final List<MetadataInfo> results = migratory.dbInit();
+        Assert.assertNotNull(results);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(2, results.get(0).getEndVersion());
+        Assert.assertTrue(tableExists("migratory_metadata_lock"));
+
+        Assert.assertNull(migratory.dbInit());
+    }
+
+    private void execute(final String sql)
+    {
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle)
+            {
+                handle.execute(sql);
+                return null;
+            }
+        });
+    }
+
     @Test
     public final void testRandom()
     {
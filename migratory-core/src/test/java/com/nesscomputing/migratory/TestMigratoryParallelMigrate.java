@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory;
+
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+
+import com.nesscomputing.migratory.metadata.MetadataInfo;
+import com.nesscomputing.migratory.migration.MigrationPlan;
+import com.nesscomputing.migratory.support.TestClasspathLocator;
+
+public class TestMigratoryParallelMigrate extends AbstractMigratoryTest
+{
+    @Override
+    protected DBI getDBI() throws Exception
+    {
+        return new DBI(TestMigratory.H2_URL, "sa", "");
+    }
+
+    private Migratory getParallelMigratory()
+    {
+        final Migratory parallelMigratory = new Migratory(new MigratoryConfig() {
+            @Override
+            public int getMigrationThreads()
+            {
+                return 4;
+            }
+        }, dbi);
+        parallelMigratory.addLocator(new TestClasspathLocator(parallelMigratory, "basic-test"));
+        return parallelMigratory;
+    }
+
+    @Test
+    public void testSamePriority()
+    {
+        final MigrationPlan planToExecute = new MigrationPlan()
+            .addMigration("p1")
+            .addMigration("p2");
+
+        final Map<String, List<MetadataInfo>> results = getParallelMigratory().dbMigrate(planToExecute);
+
+        Assert.assertNotNull(results);
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(1, results.get("p1").size());
+        Assert.assertEquals(2, results.get("p2").size());
+
+        final Map<String, StatusResult> status = migratory.dbStatus(null);
+        Assert.assertEquals(1, status.get("p1").getCurrentVersion());
+        Assert.assertEquals(2, status.get("p2").getCurrentVersion());
+    }
+
+    @Test
+    public void testPriorityGroups()
+    {
+        final MigrationPlan planToExecute = new MigrationPlan()
+            .addMigration("p1", Integer.MAX_VALUE, 1)
+            .addMigration("p2", 1, 0);
+
+        final Map<String, List<MetadataInfo>> results = getParallelMigratory().dbMigrate(planToExecute);
+
+        Assert.assertNotNull(results);
+        Assert.assertEquals(2, results.size());
+
+        Assert.assertEquals(1, migratory.dbStatus(null).get("p2").getCurrentVersion());
+
+        // Higher priority groups must have been committed before the lower ones started.
+        final Map<String, List<MetadataInfo>> history = migratory.dbHistory(null);
+        final long p1Id = history.get("p1").get(0).getMetadataInfoId();
+        final long p2Id = history.get("p2").get(0).getMetadataInfoId();
+        Assert.assertTrue(p1Id < p2Id);
+    }
+}
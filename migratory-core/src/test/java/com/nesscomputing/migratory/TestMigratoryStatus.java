@@ -27,6 +27,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.skife.jdbi.v2.DBI;
 
+import com.nesscomputing.migratory.jdbi.MigratoryStatementLocator;
 import com.nesscomputing.migratory.metadata.MetadataInfo;
 import com.nesscomputing.migratory.migration.MigrationPlan;
 import com.nesscomputing.migratory.support.TestClasspathLocator;
@@ -71,6 +72,7 @@ public class TestMigratoryStatus extends AbstractMigratoryTest
 
         StatusResult p2Info = status.get("p2");
         Assert.assertEquals(2, p2Info.getCurrentVersion());
+        Assert.assertTrue(p2Info.getReachableVersions().isEmpty());
     }
 
     @Test
@@ -101,5 +103,27 @@ public class TestMigratoryStatus extends AbstractMigratoryTest
         StatusResult p2Info = status.get("p2");
         Assert.assertEquals(2, p2Info.getCurrentVersion());
     }
-}
 
+    @Test
+    public void testOneConnection()
+    {
+        final long openCount = migratory.getDBI().getOpenCount();
+        migratory.dbStatus(null);
+        Assert.assertEquals(openCount + 1, migratory.getDBI().getOpenCount());
+    }
+
+    @Test
+    public void testTemplateCache()
+    {
+        final MigratoryStatementLocator statementLocator = migratory.getDBI().getStatementLocator();
+
+        migratory.dbStatus(null);
+        final long misses = statementLocator.getCacheMisses();
+        final long hits = statementLocator.getCacheHits();
+
+        // Templates are parsed only once.
+        migratory.dbStatus(null);
+        Assert.assertEquals(misses, statementLocator.getCacheMisses());
+        Assert.assertTrue(statementLocator.getCacheHits() > hits);
+    }
+}
@@ -16,15 +16,24 @@
 package com.nesscomputing.migratory.dbsupport;
 
 
+import java.io.StringReader;
+import java.sql.SQLException;
+
+import com.google.common.base.Function;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
 
 import com.nesscomputing.migratory.Migratory;
 import com.nesscomputing.migratory.MigratoryConfig;
 import com.nesscomputing.migratory.TestMigratory;
 import com.nesscomputing.migratory.dbsupport.h2.H2DbSupport;
+import com.nesscomputing.migratory.dbsupport.postgresql.PostgreSQLDbSupport;
+import com.nesscomputing.migratory.jdbi.MigratoryDBI;
+import com.nesscomputing.migratory.migration.sql.SqlScript;
 
 public class TestDbSupportFactory
 {
@@ -40,6 +49,53 @@ public class TestDbSupportFactory
         Assert.assertSame(dbSupport.getClass(), H3DbSupport.class);
     }
 
+    @Test
+    public void testExplicitType()
+    {
+        // Nothing listens on this URL, the database type must not be detected.
+        final DBI dbi = new DBI("jdbc:h2:tcp://localhost:1/unreachable", "sa", "");
+        final DbSupport dbSupport = new DbSupportFactory().getDbSupport(dbi, null, "PostgreSQL");
+
+        Assert.assertSame(dbSupport.getClass(), PostgreSQLDbSupport.class);
+    }
+
+    @Test
+    public void testDetectOncePerUrl()
+    {
+        final String url = "jdbc:h2:mem:migratory_detect;DB_CLOSE_DELAY=-1";
+        final MigratoryDBI dbi = new MigratoryDBI(new DBI(url, "sa", ""));
+
+        final long openCount = dbi.getOpenCount();
+        Assert.assertSame(new DbSupportFactory().getDbSupport(dbi, url, null).getClass(), H2DbSupport.class);
+        Assert.assertEquals(openCount + 1, dbi.getOpenCount());
+
+        Assert.assertSame(new DbSupportFactory().getDbSupport(dbi, url, null).getClass(), H2DbSupport.class);
+        Assert.assertEquals(openCount + 1, dbi.getOpenCount());
+    }
+
+    @Test
+    public void testAdaptLegacySupport()
+    {
+        final DBI dbi = new DBI(TestMigratory.H2_URL, "sa", "");
+        final DbSupportFactory dbSupportFactory = new DbSupportFactory();
+        dbSupportFactory.addDbSupport("H2", new Function<IDBI, DbSupport>() {
+            @Override
+            public DbSupport apply(final IDBI dbi)
+            {
+                return new LegacyDbSupport(new H2DbSupport(dbi));
+            }
+        });
+
+        final DbSupport dbSupport = dbSupportFactory.getDbSupport(dbi, null, "H2");
+        Assert.assertTrue(dbSupport instanceof AbstractDbSupport);
+        Assert.assertEquals("h2", dbSupport.getDatabaseType());
+
+        final SqlScript sqlScript = ((AbstractDbSupport) dbSupport).sqlScriptFor(new StringReader("CREATE TABLE a (id INT);\nCREATE TABLE b (id INT);\n"));
+        Assert.assertEquals(2, sqlScript.getSqlStatements().size());
+
+        Assert.assertTrue(((AbstractDbSupport) dbSupport).getLockStrategy() instanceof MetadataTableLockStrategy);
+    }
+
     private static class H3Migratory extends Migratory
     {
         private H3Migratory(final MigratoryConfig config, final IDBI dbi)
@@ -57,6 +113,67 @@ public class TestDbSupportFactory
             super(dbi);
         }
     }
+
+    /**
+     * Implements only the methods that DbSupport had originally.
+     */
+    private static class LegacyDbSupport implements DbSupport
+    {
+        private final DbSupport dbSupport;
+
+        private LegacyDbSupport(final DbSupport dbSupport)
+        {
+            this.dbSupport = dbSupport;
+        }
+
+        @Override
+        public SqlScript sqlScriptFor(final String rawSql)
+        {
+            return dbSupport.sqlScriptFor(rawSql);
+        }
+
+        @Override
+        public SqlScript createCleanScript(final Handle handle) throws SQLException
+        {
+            return dbSupport.createCleanScript(handle);
+        }
+
+        @Override
+        public String getDatabaseType()
+        {
+            return dbSupport.getDatabaseType();
+        }
+
+        @Override
+        public boolean tableExists(final String table)
+        {
+            return dbSupport.tableExists(table);
+        }
+
+        @Override
+        public boolean columnExists(final String table, final String column)
+        {
+            return dbSupport.columnExists(table, column);
+        }
+
+        @Override
+        public String getCurrentSchema(final Handle handle) throws SQLException
+        {
+            return dbSupport.getCurrentSchema(handle);
+        }
+
+        @Override
+        public boolean supportsDdlTransactions()
+        {
+            return dbSupport.supportsDdlTransactions();
+        }
+
+        @Override
+        public boolean supportsLocking()
+        {
+            return dbSupport.supportsLocking();
+        }
+    }
 }
 
 
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.jdbi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.util.IntegerMapper;
+import org.skife.jdbi.v2.util.StringMapper;
+
+import com.nesscomputing.migratory.TestMigratory;
+
+public class TestPooledConnectionFactory
+{
+    private PooledConnectionFactory pool = null;
+
+    @Before
+    public void setUp()
+    {
+        pool = new PooledConnectionFactory(TestMigratory.H2_URL, "sa", "", 2, "SELECT 1", 0L, 200L);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.close();
+        Assert.assertEquals(0, pool.getOpenCount());
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        final DBI dbi = new DBI(pool);
+
+        for (int i = 0; i < 5; i++) {
+            final Handle handle = dbi.open();
+            try {
+                Assert.assertEquals(Integer.valueOf(1), handle.createQuery("SELECT 1").map(IntegerMapper.FIRST).first());
+            }
+            finally {
+                handle.close();
+            }
+        }
+
+        Assert.assertEquals(1L, pool.getCreatedCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testBounded() throws Exception
+    {
+        final Connection c1 = pool.openConnection();
+        final Connection c2 = pool.openConnection();
+        Assert.assertEquals(2, pool.getOpenCount());
+
+        try {
+            pool.openConnection();
+            Assert.fail();
+        }
+        catch (SQLException e) {
+            // expected, all connections are in use.
+        }
+
+        c1.close();
+        final Connection c3 = pool.openConnection();
+        Assert.assertEquals(2L, pool.getCreatedCount());
+
+        c2.close();
+        c3.close();
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testReturnedConnection() throws Exception
+    {
+        final Connection connection = pool.openConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+
+        Assert.assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            Assert.fail();
+        }
+        catch (SQLException e) {
+            // expected, the connection is back in the pool.
+        }
+
+        final Connection reused = pool.openConnection();
+        Assert.assertTrue(reused.getAutoCommit());
+        reused.close();
+        Assert.assertEquals(1L, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception
+    {
+        final PooledConnectionFactory evictingPool = new PooledConnectionFactory(TestMigratory.H2_URL, "sa", "", 2, null, 50L, 200L);
+        try {
+            evictingPool.openConnection().close();
+            Thread.sleep(100L);
+            evictingPool.openConnection().close();
+
+            Assert.assertEquals(2L, evictingPool.getCreatedCount());
+            Assert.assertEquals(1, evictingPool.getOpenCount());
+        }
+        finally {
+            evictingPool.close();
+        }
+    }
+
+    @Test
+    public void testResetOnRelease() throws Exception
+    {
+        final PooledConnectionFactory resettingPool = new PooledConnectionFactory(TestMigratory.H2_URL, "sa", "", 1, null, "SET @migratory_test = NULL", 0L, 200L);
+        try {
+            final DBI dbi = new DBI(resettingPool);
+
+            final Handle handle = dbi.open();
+            try {
+                handle.execute("SET @migratory_test = 1");
+                Assert.assertEquals(Integer.valueOf(1), handle.createQuery("SELECT @migratory_test").map(IntegerMapper.FIRST).first());
+            }
+            finally {
+                handle.close();
+            }
+
+            final Handle reused = dbi.open();
+            try {
+                Assert.assertNull(reused.createQuery("SELECT @migratory_test").map(StringMapper.FIRST).first());
+            }
+            finally {
+                reused.close();
+            }
+            Assert.assertEquals(1L, resettingPool.getCreatedCount());
+        }
+        finally {
+            resettingPool.close();
+        }
+    }
+
+    @Test
+    public void testDefaultResetQuery()
+    {
+        Assert.assertEquals("DISCARD ALL", PooledConnectionFactory.getDefaultResetQuery("jdbc:postgresql://localhost/migratory"));
+        Assert.assertNull(PooledConnectionFactory.getDefaultResetQuery(TestMigratory.H2_URL));
+    }
+}
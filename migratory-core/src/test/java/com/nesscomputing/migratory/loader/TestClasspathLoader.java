@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestClasspathLoader
+{
+    private LoaderManager loaderManager = null;
+    private ClasspathLoader classpathLoader = null;
+
+    @Before
+    public void setUp()
+    {
+        loaderManager = new LoaderManager();
+        classpathLoader = new ClasspathLoader(loaderManager);
+        loaderManager.addLoader(new FileLoader(Charsets.UTF_8));
+        loaderManager.addLoader(new JarLoader(Charsets.UTF_8));
+        loaderManager.addLoader(classpathLoader);
+    }
+
+    @Test
+    public void testLoadFolder()
+    {
+        final Collection<URI> uris = loaderManager.loadFolder(URI.create("classpath:/test/basic-test"), "p2.*");
+        Assert.assertEquals(2, uris.size());
+
+        // Answered from the index.
+        Assert.assertSame(uris, classpathLoader.loadFolder(URI.create("classpath:/test/basic-test/"), "p2.*"));
+        Assert.assertEquals(3, classpathLoader.loadFolder(URI.create("classpath:/test/basic-test"), null).size());
+    }
+
+    @Test
+    public void testLoadFile()
+    {
+        final String content = loaderManager.loadFile(URI.create("classpath:/test/basic-test/p1.001.sql"));
+        Assert.assertNotNull(content);
+        Assert.assertEquals(content, classpathLoader.loadFile(URI.create("classpath:/test/basic-test/p1.001.sql")));
+    }
+
+    @Test
+    public void testTwoRoots() throws Exception
+    {
+        final File firstJar = createJar("p1.001.sql", "p1.002.sql");
+        final File secondJar = createJar("p1.002.sql", "p1.003.sql");
+        try {
+            final URLClassLoader classLoader = new URLClassLoader(new URL [] { firstJar.toURI().toURL(), secondJar.toURI().toURL() }, null);
+            final JarLoader jarLoader = new JarLoader(Charsets.UTF_8);
+            try {
+                final LoaderManager rootsLoaderManager = new LoaderManager();
+                rootsLoaderManager.addLoader(jarLoader);
+                rootsLoaderManager.addLoader(new ClasspathLoader(rootsLoaderManager, classLoader));
+
+                final Collection<URI> uris = rootsLoaderManager.loadFolder(URI.create("classpath:/sql"), "p1.*");
+                Assert.assertEquals(3, uris.size());
+
+                final Map<String, String> contents = Maps.newHashMap();
+                for (final URI uri : uris) {
+                    final String uriString = uri.toString();
+                    contents.put(uriString.substring(uriString.lastIndexOf('/') + 1), rootsLoaderManager.loadFile(uri));
+                }
+
+                // The first root on the classpath wins.
+                Assert.assertEquals(firstJar.getName() + ":p1.002.sql", contents.get("p1.002.sql"));
+                Assert.assertEquals(secondJar.getName() + ":p1.003.sql", contents.get("p1.003.sql"));
+
+                Assert.assertEquals(firstJar.getName() + ":p1.001.sql", rootsLoaderManager.loadFile(URI.create("classpath:/sql/p1.001.sql")));
+            }
+            finally {
+                jarLoader.close();
+            }
+        }
+        finally {
+            Assert.assertTrue(firstJar.delete());
+            Assert.assertTrue(secondJar.delete());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFile()
+    {
+        classpathLoader.loadFile(URI.create("classpath:/test/basic-test/p9.001.sql"));
+    }
+
+    /**
+     * Creates a jar with the given files in its sql folder. Every file contains the jar and its own name.
+     */
+    private static File createJar(final String ... fileNames) throws Exception
+    {
+        final File jarFile = File.createTempFile("migratory", ".jar");
+        final JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            TestJarLoader.addEntry(jos, "sql/", null);
+            for (final String fileName : fileNames) {
+                TestJarLoader.addEntry(jos, "sql/" + fileName, jarFile.getName() + ":" + fileName);
+            }
+        }
+        finally {
+            jos.close();
+        }
+        return jarFile;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.io.File;
+import java.io.Reader;
+import java.net.URI;
+import java.util.Collection;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFileLoader
+{
+    private File tmpDir = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        tmpDir = Files.createTempDir();
+        Files.write("CREATE TABLE p1 (id INT);", new File(tmpDir, "p1.001.sql"), Charsets.UTF_8);
+        Files.write("DROP TABLE p1;", new File(tmpDir, "p1.002.sql"), Charsets.UTF_8);
+        Files.write("CREATE TABLE p2 (id INT);", new File(tmpDir, "p2.001.sql"), Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testLoadFolder()
+    {
+        final FileLoader fileLoader = new FileLoader(Charsets.UTF_8);
+
+        final Collection<URI> uris = fileLoader.loadFolder(tmpDir.toURI(), "p1.*");
+        Assert.assertEquals(ImmutableSet.of(new File(tmpDir, "p1.001.sql").toURI(), new File(tmpDir, "p1.002.sql").toURI()), ImmutableSet.copyOf(uris));
+        Assert.assertEquals(3, fileLoader.loadFolder(tmpDir.toURI(), null).size());
+    }
+
+    @Test
+    public void testOpenFile() throws Exception
+    {
+        final File seedFile = new File(tmpDir, "seed.001.sql");
+        final String content = Strings.repeat("INSERT INTO seed VALUES ('\u00e4\u00f6\u00fc');\n", 1000);
+        Files.write(content, seedFile, Charsets.UTF_8);
+
+        final FileLoader fileLoader = new FileLoader(Charsets.UTF_8);
+        Assert.assertEquals(content, fileLoader.loadFile(seedFile.toURI()));
+
+        final Reader reader = fileLoader.openFile(seedFile.toURI());
+        try {
+            Assert.assertEquals(content, CharStreams.toString(reader));
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharStreams;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestJarLoader
+{
+    private File jarFile = null;
+    private JarLoader jarLoader = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        jarFile = File.createTempFile("migratory", ".jar");
+
+        final JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            addEntry(jos, "sql/", null);
+            addEntry(jos, "sql/p1.001.sql", "CREATE TABLE p1 (id INT);");
+            addEntry(jos, "sql/p1.002.sql", "DROP TABLE p1;");
+            addEntry(jos, "sql/p2.001.sql", "CREATE TABLE p2 (id INT);");
+            addEntry(jos, "sql/sub/p1.003.sql", "SELECT 1;");
+        }
+        finally {
+            jos.close();
+        }
+
+        jarLoader = new JarLoader(Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        jarLoader.close();
+        Assert.assertTrue(jarFile.delete());
+    }
+
+    @Test
+    public void testLoadFolder() throws Exception
+    {
+        final String base = "jar:" + jarFile.toURI() + "!/";
+
+        final Collection<URI> uris = jarLoader.loadFolder(URI.create(base + "sql"), "p1.*");
+        Assert.assertEquals(ImmutableSet.of(URI.create(base + "sql/p1.001.sql"), URI.create(base + "sql/p1.002.sql")), uris);
+
+        Assert.assertEquals(3, jarLoader.loadFolder(URI.create(base + "sql/"), null).size());
+        Assert.assertTrue(jarLoader.loadFolder(URI.create(base + "nothing"), null).isEmpty());
+    }
+
+    @Test
+    public void testLoadFile() throws Exception
+    {
+        final String base = "jar:" + jarFile.toURI() + "!/";
+
+        Assert.assertEquals("DROP TABLE p1;", jarLoader.loadFile(URI.create(base + "sql/p1.002.sql")));
+        Assert.assertEquals("SELECT 1;", jarLoader.loadFile(URI.create(base + "sql/sub/p1.003.sql")));
+    }
+
+    @Test
+    public void testLoadFiles() throws Exception
+    {
+        final String base = "jar:" + jarFile.toURI() + "!/";
+        final URI p1 = URI.create(base + "sql/p1.001.sql");
+        final URI p2 = URI.create(base + "sql/p2.001.sql");
+
+        final Map<URI, String> results = jarLoader.loadFiles(ImmutableList.of(p1, p2));
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals("CREATE TABLE p1 (id INT);", results.get(p1));
+        Assert.assertEquals("CREATE TABLE p2 (id INT);", results.get(p2));
+    }
+
+    @Test
+    public void testStampReplacedJar() throws Exception
+    {
+        final URI p1 = URI.create("jar:" + jarFile.toURI() + "!/sql/p1.001.sql");
+
+        final String stamp = jarLoader.stampFor(p1);
+        Assert.assertNotNull(stamp);
+        Assert.assertEquals(stamp, jarLoader.stampFor(p1));
+        Assert.assertNull(jarLoader.stampFor(URI.create("jar:" + jarFile.toURI() + "!/sql/missing.sql")));
+
+        // Same size, different content.
+        final JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            addEntry(jos, "sql/p1.001.sql", "CREATE TABLE p9 (id INT);");
+        }
+        finally {
+            jos.close();
+        }
+        Assert.assertTrue(jarFile.setLastModified(jarFile.lastModified() + 2000L));
+
+        Assert.assertFalse(stamp.equals(jarLoader.stampFor(p1)));
+        Assert.assertEquals("CREATE TABLE p9 (id INT);", jarLoader.loadFile(p1));
+    }
+
+    @Test
+    public void testReadFromReplacedJar() throws Exception
+    {
+        final URI p1 = URI.create("jar:" + jarFile.toURI() + "!/sql/p1.001.sql");
+        final Reader reader = jarLoader.openFile(p1);
+        try {
+            // Replace the jar with a new file, the open reader still points at the old one.
+            final File newJarFile = File.createTempFile("migratory", ".jar", jarFile.getParentFile());
+            final JarOutputStream jos = new JarOutputStream(new FileOutputStream(newJarFile));
+            try {
+                addEntry(jos, "sql/p1.001.sql", "CREATE TABLE p9 (id INT);");
+            }
+            finally {
+                jos.close();
+            }
+            Assert.assertTrue(newJarFile.setLastModified(jarFile.lastModified() + 2000L));
+            Assert.assertTrue(newJarFile.renameTo(jarFile));
+
+            Assert.assertEquals("CREATE TABLE p9 (id INT);", jarLoader.loadFile(p1));
+            Assert.assertEquals("CREATE TABLE p1 (id INT);", CharStreams.toString(reader));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    static void addEntry(final JarOutputStream jos, final String name, final String content) throws Exception
+    {
+        jos.putNextEntry(new JarEntry(name));
+        if (content != null) {
+            jos.write(content.getBytes(Charsets.UTF_8));
+        }
+        jos.closeEntry();
+    }
+}
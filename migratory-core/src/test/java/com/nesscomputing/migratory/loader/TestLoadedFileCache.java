@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.io.File;
+import java.net.URI;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLoadedFileCache
+{
+    private File file = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("migratory", ".sql");
+        Files.write("CREATE TABLE p1 (id INT);", file, Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        final LoadedFileCache fileCache = new LoadedFileCache(20L);
+        final URI a = URI.create("file:/a");
+        final URI b = URI.create("file:/b");
+
+        fileCache.put(a, "1", "aaaa");
+        fileCache.put(b, "1", "bbbb");
+        Assert.assertEquals(16L, fileCache.getBytes());
+
+        Assert.assertEquals("aaaa", fileCache.get(a, "1"));
+        Assert.assertNull(fileCache.get(a, "2"));
+
+        // b was used least recently.
+        fileCache.put(URI.create("file:/c"), "1", "cccc");
+        Assert.assertEquals(2, fileCache.getFileCount());
+        Assert.assertNull(fileCache.get(b, "1"));
+        Assert.assertEquals("aaaa", fileCache.get(a, "1"));
+
+        // Too large to cache at all.
+        fileCache.put(b, "1", "bbbbbbbbbbbb");
+        Assert.assertNull(fileCache.get(b, "1"));
+
+        Assert.assertEquals(2L, fileCache.getHitCount());
+        Assert.assertEquals(3L, fileCache.getMissCount());
+        Assert.assertEquals(1L, fileCache.getEvictionCount());
+    }
+
+    @Test
+    public void testLoaderManager() throws Exception
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        loaderManager.addLoader(new FileLoader(Charsets.UTF_8));
+        final LoadedFileCache fileCache = new LoadedFileCache(1024L);
+        loaderManager.setFileCache(fileCache);
+
+        final URI uri = file.toURI();
+        Assert.assertEquals("CREATE TABLE p1 (id INT);", loaderManager.loadFile(uri));
+        Assert.assertEquals("CREATE TABLE p1 (id INT);", loaderManager.loadFile(uri));
+        Assert.assertEquals(1L, fileCache.getHitCount());
+        Assert.assertEquals(1L, fileCache.getMissCount());
+
+        Files.write("DROP TABLE p1;", file, Charsets.UTF_8);
+        Assert.assertEquals("DROP TABLE p1;", loaderManager.loadFile(uri));
+        Assert.assertEquals(2L, fileCache.getMissCount());
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.loader;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.migratory.MigratoryException;
+
+public class TestLoaderManager
+{
+    @Test
+    public void testPriority()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final CountingLoader low = new CountingLoader("low");
+        final CountingLoader high = new CountingLoader("high");
+        final CountingLoader other = new CountingLoader("other");
+
+        loaderManager.addLoader(low);
+        loaderManager.addLoader(other);
+        loaderManager.addLoader(high, 10);
+
+        Assert.assertEquals(ImmutableList.of(high, low, other), loaderManager.getLoaders());
+        Assert.assertEquals("high", loaderManager.loadFile(URI.create("test:a")));
+    }
+
+    @Test
+    public void testSchemeDispatch()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final CountingLoader loader = new SchemeLoader("test");
+        loaderManager.addLoader(loader);
+
+        loaderManager.loadFile(URI.create("test:a"));
+        loaderManager.loadFile(URI.create("test:b"));
+        loaderManager.loadFile(URI.create("test:c"));
+        Assert.assertEquals(1, loader.getAcceptCount());
+
+        Assert.assertNull(loaderManager.loadFile(URI.create("unknown:a")));
+    }
+
+    @Test
+    public void testNoSchemeDispatch()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final CountingLoader loader = new CountingLoader("test");
+        loaderManager.addLoader(loader);
+
+        // Loaders that do not declare their schemes are asked for every URI.
+        loaderManager.loadFile(URI.create("test:a"));
+        loaderManager.loadFile(URI.create("test:b"));
+        Assert.assertEquals(2, loader.getAcceptCount());
+
+        // A scheme loader behind such a loader is not remembered either.
+        final CountingLoader schemeLoader = new SchemeLoader("scheme");
+        loaderManager.addLoader(schemeLoader);
+        Assert.assertEquals("test", loaderManager.loadFile(URI.create("test:c")));
+        Assert.assertEquals("test", loaderManager.loadFile(URI.create("test:d")));
+        Assert.assertEquals(4, loader.getAcceptCount());
+        Assert.assertEquals(0, schemeLoader.getAcceptCount());
+    }
+
+    @Test
+    public void testLoadFiles()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final CountingLoader loader = new CountingLoader("test");
+        final BulkLoader bulkLoader = new BulkLoader();
+        loaderManager.addLoader(loader);
+        loaderManager.addLoader(bulkLoader);
+
+        final URI a = URI.create("test:a");
+        final URI b = URI.create("bulk:b");
+        final URI c = URI.create("bulk:c");
+        final URI d = URI.create("unknown:d");
+
+        final Map<URI, String> results = loaderManager.loadFiles(ImmutableList.of(a, b, c, d));
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("test", results.get(a));
+        Assert.assertEquals("bulk:b", results.get(b));
+        Assert.assertEquals("bulk:c", results.get(c));
+        Assert.assertEquals(1, bulkLoader.getBulkCount());
+    }
+
+    @Test
+    public void testOpenFile() throws Exception
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        loaderManager.addLoader(new CountingLoader("test"));
+        loaderManager.addLoader(new FileLoader(Charsets.UTF_8));
+
+        final File file = File.createTempFile("migratory", ".sql");
+        try {
+            Files.write("CREATE TABLE p1 (id INT);", file, Charsets.UTF_8);
+
+            final Reader fileReader = loaderManager.openFile(file.toURI());
+            try {
+                Assert.assertFalse(fileReader instanceof StringReader);
+                Assert.assertEquals("CREATE TABLE p1 (id INT);", CharStreams.toString(fileReader));
+            }
+            finally {
+                fileReader.close();
+            }
+        }
+        finally {
+            Assert.assertTrue(file.delete());
+        }
+
+        // Loaders that can not stream are loaded completely.
+        Assert.assertEquals("test", CharStreams.toString(loaderManager.openFile(URI.create("test:a"))));
+        Assert.assertNull(loaderManager.openFile(URI.create("unknown:a")));
+    }
+
+    @Test
+    public void testClose()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final ClosingLoader closingLoader = new ClosingLoader();
+        loaderManager.addLoader(new CountingLoader("test"));
+        loaderManager.addLoader(closingLoader);
+
+        loaderManager.close();
+        Assert.assertTrue(closingLoader.isClosed());
+    }
+
+    @Test
+    public void testCloseAfterFailure()
+    {
+        final LoaderManager loaderManager = new LoaderManager();
+        final ClosingLoader closingLoader = new ClosingLoader();
+        loaderManager.addLoader(new FailingLoader());
+        loaderManager.addLoader(closingLoader);
+
+        try {
+            loaderManager.close();
+            Assert.fail();
+        }
+        catch (MigratoryException me) {
+            Assert.assertTrue(me.getCause() instanceof IOException);
+        }
+        Assert.assertTrue(closingLoader.isClosed());
+    }
+
+    private static class CountingLoader implements MigrationLoader
+    {
+        private final String content;
+        private int acceptCount = 0;
+
+        CountingLoader(final String content)
+        {
+            this.content = content;
+        }
+
+        @Override
+        public boolean accept(final URI uri)
+        {
+            acceptCount++;
+            return "test".equals(uri.getScheme());
+        }
+
+        @Override
+        public Collection<URI> loadFolder(final URI folderUri, final String searchPattern)
+        {
+            return ImmutableList.of();
+        }
+
+        @Override
+        public String loadFile(final URI fileUri)
+        {
+            return content;
+        }
+
+        int getAcceptCount()
+        {
+            return acceptCount;
+        }
+    }
+
+    private static class SchemeLoader extends CountingLoader implements SchemeMigrationLoader
+    {
+        SchemeLoader(final String content)
+        {
+            super(content);
+        }
+
+        @Override
+        public Set<String> getSchemes()
+        {
+            return ImmutableSet.of("test");
+        }
+    }
+
+    private static class ClosingLoader extends CountingLoader implements Closeable
+    {
+        private boolean closed = false;
+
+        ClosingLoader()
+        {
+            super("closing");
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        boolean isClosed()
+        {
+            return closed;
+        }
+    }
+
+    private static class FailingLoader extends CountingLoader implements Closeable
+    {
+        FailingLoader()
+        {
+            super("failing");
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            throw new IOException("test");
+        }
+    }
+
+    private static class BulkLoader implements BulkMigrationLoader
+    {
+        private int bulkCount = 0;
+
+        @Override
+        public boolean accept(final URI uri)
+        {
+            return "bulk".equals(uri.getScheme());
+        }
+
+        @Override
+        public Collection<URI> loadFolder(final URI folderUri, final String searchPattern)
+        {
+            return ImmutableList.of();
+        }
+
+        @Override
+        public String loadFile(final URI fileUri)
+        {
+            throw new IllegalStateException("Should not be called!");
+        }
+
+        @Override
+        public Map<URI, String> loadFiles(final Collection<URI> fileUris) throws IOException
+        {
+            bulkCount++;
+            final Map<URI, String> results = Maps.newHashMap();
+            for (final URI fileUri : fileUris) {
+                results.put(fileUri, fileUri.toString());
+            }
+            return results;
+        }
+
+        int getBulkCount()
+        {
+            return bulkCount;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.metadata;
+
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+
+import com.nesscomputing.migratory.AbstractMigratoryTest;
+import com.nesscomputing.migratory.Migratory;
+import com.nesscomputing.migratory.MigratoryConfig;
+import com.nesscomputing.migratory.MigratoryOption;
+import com.nesscomputing.migratory.StatusResult;
+import com.nesscomputing.migratory.TestMigratory;
+import com.nesscomputing.migratory.migration.MigrationPlan;
+import com.nesscomputing.migratory.support.TestClasspathLocator;
+
+public class TestMetadataCache extends AbstractMigratoryTest
+{
+    @Override
+    protected DBI getDBI() throws Exception
+    {
+        return new DBI(TestMigratory.H2_URL, "sa", "");
+    }
+
+    @Override
+    protected void init()
+    {
+        migratory.addLocator(new TestClasspathLocator(migratory, "basic-test"));
+    }
+
+    private Migratory getCachingMigratory()
+    {
+        final Migratory cachingMigratory = new Migratory(new MigratoryConfig() {
+            @Override
+            public boolean isMetadataCache()
+            {
+                return true;
+            }
+        }, dbi);
+        cachingMigratory.addLocator(new TestClasspathLocator(cachingMigratory, "basic-test"));
+        return cachingMigratory;
+    }
+
+    @Test
+    public void testCommitInvalidates()
+    {
+        final Migratory cachingMigratory = getCachingMigratory();
+
+        cachingMigratory.dbMigrate(new MigrationPlan().addMigration("p1"));
+        Assert.assertEquals(1, cachingMigratory.dbStatus(null).get("p1").getCurrentVersion());
+
+        cachingMigratory.dbMigrate(new MigrationPlan().addMigration("p2"));
+
+        final Map<String, StatusResult> status = cachingMigratory.dbStatus(null);
+        Assert.assertEquals(2, status.size());
+        Assert.assertEquals(2, status.get("p2").getCurrentVersion());
+
+        final Map<String, List<MetadataInfo>> history = cachingMigratory.dbHistory(ImmutableList.of("p2"));
+        Assert.assertEquals(1, history.size());
+        Assert.assertEquals(2, history.get("p2").size());
+    }
+
+    @Test
+    public void testIncrementalRefresh()
+    {
+        final Migratory cachingMigratory = getCachingMigratory();
+
+        migratory.dbMigrate(new MigrationPlan().addMigration("p1"));
+        Assert.assertEquals(1, cachingMigratory.dbHistory(null).size());
+
+        // Migrated by another instance, must be picked up without invalidating the cache.
+        migratory.dbMigrate(new MigrationPlan().addMigration("p2", 1));
+
+        final Map<String, List<MetadataInfo>> history = cachingMigratory.dbHistory(null);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(1, history.get("p2").size());
+        Assert.assertEquals(migratory.dbHistory(null).get("p2").get(0).getMetadataInfoId(), history.get("p2").get(0).getMetadataInfoId());
+
+        migratory.dbMigrate(new MigrationPlan().addMigration("p2"));
+        Assert.assertEquals(2, cachingMigratory.dbStatus(ImmutableList.of("p2")).get("p2").getCurrentVersion());
+    }
+
+    @Test
+    public void testOutOfOrderCommit()
+    {
+        final Migratory cachingMigratory = getCachingMigratory();
+
+        migratory.dbMigrate(new MigrationPlan().addMigration("p1", 1));
+        Assert.assertEquals(1, cachingMigratory.dbStatus(null).get("p1").getCurrentVersion());
+
+        final long lastId = queryForInt("SELECT MAX(metadata_id) FROM migratory_metadata");
+
+        // p2 got the higher id but commits first, p1 commits later with the lower id.
+        insertMetadata(lastId + 2, "p2", 0, 1);
+        Assert.assertEquals(1, cachingMigratory.dbStatus(null).get("p2").getCurrentVersion());
+
+        insertMetadata(lastId + 1, "p1", 1, 2);
+
+        final Map<String, StatusResult> status = cachingMigratory.dbStatus(null);
+        Assert.assertEquals(2, status.get("p1").getCurrentVersion());
+        Assert.assertEquals(1, status.get("p2").getCurrentVersion());
+        assertSameHistory(migratory.dbHistory(null), cachingMigratory.dbHistory(null));
+    }
+
+    @Test
+    public void testSteadyStatePoll()
+    {
+        final Migratory cachingMigratory = getCachingMigratory();
+        final MetadataCache metadataCache = cachingMigratory.getMetadataCache();
+
+        migratory.dbMigrate(new MigrationPlan().addMigration("p1", 1));
+
+        // The sequence does not start at 1, the ids below the first row must not be re-read.
+        Assert.assertTrue(refresh(metadataCache) > 0);
+        Assert.assertEquals(0, refresh(metadataCache));
+
+        // A gap that never fills is re-read until it times out.
+        final long lastId = queryForInt("SELECT MAX(metadata_id) FROM migratory_metadata");
+        insertMetadata(lastId + 2, "p2", 0, 1);
+        Assert.assertEquals(1, refresh(metadataCache));
+        Assert.assertEquals(1, refresh(metadataCache));
+
+        metadataCache.setMissingIdTimeout(0L);
+        sleep(10L);
+        Assert.assertEquals(0, refresh(metadataCache));
+        Assert.assertEquals(0, refresh(metadataCache));
+    }
+
+    private int refresh(final MetadataCache metadataCache)
+    {
+        return dbi.withHandle(new HandleCallback<Integer>() {
+            @Override
+            public Integer withHandle(final Handle handle)
+            {
+                return metadataCache.refresh(handle);
+            }
+        });
+    }
+
+    private static void sleep(final long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void assertSameHistory(final Map<String, List<MetadataInfo>> expected, final Map<String, List<MetadataInfo>> actual)
+    {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (final Map.Entry<String, List<MetadataInfo>> entry : expected.entrySet()) {
+            final List<MetadataInfo> expectedInfos = entry.getValue();
+            final List<MetadataInfo> actualInfos = actual.get(entry.getKey());
+            Assert.assertEquals(expectedInfos.size(), actualInfos.size());
+            for (int i = 0; i < expectedInfos.size(); i++) {
+                Assert.assertEquals(expectedInfos.get(i).getMetadataInfoId(), actualInfos.get(i).getMetadataInfoId());
+                Assert.assertEquals(expectedInfos.get(i).getStartVersion(), actualInfos.get(i).getStartVersion());
+                Assert.assertEquals(expectedInfos.get(i).getEndVersion(), actualInfos.get(i).getEndVersion());
+                Assert.assertEquals(expectedInfos.get(i).getState(), actualInfos.get(i).getState());
+            }
+        }
+    }
+
+    private void insertMetadata(final long metadataId, final String personalityName, final int startVersion, final int endVersion)
+    {
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle)
+            {
+                handle.createStatement("INSERT INTO migratory_metadata (start_version, end_version, personality_name, description, type, state, direction, "
+                                       + "execution_time, location, script_name, checksum, metadata_id) "
+                                       + "VALUES (:start_version, :end_version, :personality_name, 'test', 'SQL', 'OK', 'FORWARD', 0, 'test', 'test', 'test', :metadata_id)")
+                    .bind("start_version", startVersion)
+                    .bind("end_version", endVersion)
+                    .bind("personality_name", personalityName)
+                    .bind("metadata_id", metadataId)
+                    .execute();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testInternal()
+    {
+        final Migratory cachingMigratory = getCachingMigratory();
+        cachingMigratory.dbMigrate(new MigrationPlan().addMigration("p1"));
+
+        Assert.assertFalse(cachingMigratory.dbHistory(null).containsKey(MetadataManager.METADATA_MIGRATION_NAME));
+        Assert.assertTrue(cachingMigratory.dbHistory(null, MigratoryOption.INCLUDE_INTERNAL).containsKey(MetadataManager.METADATA_MIGRATION_NAME));
+        Assert.assertEquals(migratory.dbStatus(null, MigratoryOption.INCLUDE_INTERNAL), cachingMigratory.dbStatus(null, MigratoryOption.INCLUDE_INTERNAL));
+    }
+}
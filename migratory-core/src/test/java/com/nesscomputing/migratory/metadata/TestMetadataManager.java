@@ -16,6 +16,7 @@
 package com.nesscomputing.migratory.metadata;
 
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -24,9 +25,18 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionIsolationLevel;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.skife.jdbi.v2.util.StringMapper;
 
 import com.nesscomputing.migratory.Migratory;
 import com.nesscomputing.migratory.MigratoryConfig;
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.jdbi.MigratoryDBI;
 import com.nesscomputing.migratory.migration.MigrationPlan;
 import com.nesscomputing.migratory.support.TestClasspathLocator;
 
@@ -92,5 +102,156 @@ public class TestMetadataManager
         Assert.assertNotNull(p2Info);
         Assert.assertEquals(Integer.valueOf(2), p2Info);
     }
-}
 
+    @Test
+    public void testCommitReturnsKeys()
+    {
+        migratory.dbClean();
+
+        final MigrationPlan migrations = new MigrationPlan("p2");
+        final Map<String, List<MetadataInfo>> results = migratory.dbMigrate(migrations);
+
+        final List<MetadataInfo> p2Results = results.get("p2");
+        Assert.assertNotNull(p2Results);
+        Assert.assertEquals(2, p2Results.size());
+
+        final List<MetadataInfo> p2History = migratory.dbHistory(Collections.singletonList("p2")).get("p2");
+        Assert.assertNotNull(p2History);
+        Assert.assertEquals(2, p2History.size());
+
+        for (int i = 0; i < p2Results.size(); i++) {
+            Assert.assertTrue(p2Results.get(i).getMetadataInfoId() > 0);
+            Assert.assertEquals(p2History.get(i).getMetadataInfoId(), p2Results.get(i).getMetadataInfoId());
+            Assert.assertEquals(i + 1, p2Results.get(i).getEndVersion());
+        }
+
+        migratory.dbClean();
+    }
+
+    @Test
+    public void testSessionConnections()
+    {
+        migratory.dbClean();
+
+        // One connection for the metadata and the lock, one for the migrations.
+        final long openCount = migratory.getDBI().getOpenCount();
+        migratory.dbMigrate(new MigrationPlan("p1", "p2"));
+        Assert.assertEquals(openCount + 2, migratory.getDBI().getOpenCount());
+
+        migratory.dbClean();
+    }
+
+    @Test
+    public void testSessionIsolationLevel()
+    {
+        final MigratoryDBI migratoryDbi = migratory.getDBI();
+        final long openCount = migratoryDbi.getOpenCount();
+
+        migratoryDbi.beginSession();
+        try {
+            final String result = migratoryDbi.inTransaction(TransactionIsolationLevel.READ_COMMITTED, new TransactionCallback<String>() {
+                @Override
+                public String inTransaction(final Handle handle, final TransactionStatus status) {
+                    return handle.createQuery("SELECT 'ok'").map(StringMapper.FIRST).first();
+                }
+            });
+            Assert.assertEquals("ok", result);
+            Assert.assertEquals("ok", queryInSession(migratoryDbi));
+        }
+        finally {
+            migratoryDbi.endSession();
+        }
+
+        // Both calls used the session connection.
+        Assert.assertEquals(openCount + 1, migratoryDbi.getOpenCount());
+    }
+
+    private static String queryInSession(final MigratoryDBI migratoryDbi)
+    {
+        return migratoryDbi.withHandle(new HandleCallback<String>() {
+            @Override
+            public String withHandle(final Handle handle) {
+                return handle.createQuery("SELECT 'ok'").map(StringMapper.FIRST).first();
+            }
+        });
+    }
+
+    @Test
+    public void testLockRow()
+    {
+        migratory.dbClean();
+
+        // Without MVCC, the metadata table is locked and the lock table stays empty.
+        migratory.dbMigrate(new MigrationPlan("p2"));
+        Assert.assertTrue(migratory.getDbSupport().tableExists("migratory_metadata_lock"));
+        Assert.assertEquals(Collections.<String>emptyList(), getLockedPersonalities(dbi));
+
+        migratory.dbClean();
+    }
+
+    @Test
+    public void testLockRowMvcc()
+    {
+        final DBI mvccDbi = new DBI("jdbc:h2:mem:migratory_mvcc_test;MVCC=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        final Migratory mvccMigratory = new Migratory(new MigratoryConfig() {}, mvccDbi);
+        mvccMigratory.addLocator(new TestClasspathLocator(mvccMigratory, "basic-test"));
+        mvccMigratory.dbClean();
+
+        mvccMigratory.dbMigrate(new MigrationPlan("p2"));
+        Assert.assertEquals(Collections.singletonList("p2"), getLockedPersonalities(mvccDbi));
+
+        mvccMigratory.dbClean();
+    }
+
+    private static List<String> getLockedPersonalities(final DBI lockDbi)
+    {
+        return lockDbi.withHandle(new HandleCallback<List<String>>() {
+            @Override
+            public List<String> withHandle(final Handle handle) {
+                return handle.createQuery("SELECT personality_name FROM migratory_metadata_lock").map(StringMapper.FIRST).list();
+            }
+        });
+    }
+
+    @Test
+    public void testLockTimeout()
+    {
+        migratory.dbClean();
+        migratory.dbMigrate(new MigrationPlan("p2"));
+
+        final Migratory timeoutMigratory = new Migratory(new MigratoryConfig() {
+            @Override
+            public long getLockTimeout()
+            {
+                return 200L;
+            }
+        }, dbi);
+        timeoutMigratory.addLocator(new TestClasspathLocator(timeoutMigratory, "basic-test"));
+
+        final MetadataManager lockHolder = new MetadataManager(migratory);
+        lockHolder.lock("p2");
+        try {
+            new MetadataManager(timeoutMigratory).lock("p2", null);
+            Assert.fail();
+        }
+        catch (MigratoryException me) {
+            Assert.assertEquals(Reason.LOCK_TIMEOUT, me.getReason());
+        }
+        finally {
+            lockHolder.rollback();
+        }
+
+        final LockMetrics lockMetrics = timeoutMigratory.getLockMetrics();
+        Assert.assertEquals(1L, lockMetrics.getTimeoutCount());
+        Assert.assertEquals(0L, lockMetrics.getLockCount());
+        Assert.assertTrue(lockMetrics.getTotalWaitMillis() >= 200L);
+
+        // Without the lock holder, the lock is taken right away.
+        final MetadataManager metadataManager = new MetadataManager(timeoutMigratory);
+        Assert.assertTrue(metadataManager.lock("p2", null));
+        metadataManager.rollback();
+        Assert.assertEquals(1L, lockMetrics.getLockCount());
+
+        migratory.dbClean();
+    }
+}
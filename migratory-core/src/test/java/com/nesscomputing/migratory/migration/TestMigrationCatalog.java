@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration;
+
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+
+import com.nesscomputing.migratory.Migratory;
+import com.nesscomputing.migratory.MigratoryConfig;
+import com.nesscomputing.migratory.MigratoryContext;
+import com.nesscomputing.migratory.TestMigratory;
+import com.nesscomputing.migratory.dbsupport.DbSupport;
+import com.nesscomputing.migratory.information.MigrationInformationStrategy;
+import com.nesscomputing.migratory.jdbi.MigratoryDBI;
+import com.nesscomputing.migratory.loader.LoaderManager;
+import com.nesscomputing.migratory.locator.MigrationLocator;
+import com.nesscomputing.migratory.support.TestClasspathLocator;
+
+public class TestMigrationCatalog
+{
+    private Migratory migratory = null;
+
+    @Before
+    public void setUp()
+    {
+        migratory = new Migratory(new MigratoryConfig() {}, new DBI(TestMigratory.H2_URL, "sa", ""));
+        migratory.addLocator(new TestClasspathLocator(migratory, "basic-test"));
+    }
+
+    @Test
+    public void testScanOnce()
+    {
+        final MigrationCatalog catalog = migratory.getMigrationCatalog();
+
+        final Map<String, Migration> p2Migrations = catalog.getMigrations("p2");
+        Assert.assertEquals(2, p2Migrations.size());
+        Assert.assertSame(p2Migrations, catalog.getMigrations("p2"));
+        Assert.assertSame(p2Migrations, new MigrationManager(migratory, "p2").getMigrations());
+
+        final Map<String, Migration> p1Migrations = catalog.getMigrations("p1");
+        Assert.assertEquals(1, p1Migrations.size());
+        Assert.assertNotSame(p1Migrations, p2Migrations);
+    }
+
+    @Test
+    public void testPlainContext()
+    {
+        // A context that only implements MigratoryContext gets a catalog of its own.
+        final MigratoryContext plainContext = new MigratoryContext() {
+            @Override
+            public MigratoryDBI getDBI()
+            {
+                return migratory.getDBI();
+            }
+
+            @Override
+            public MigratoryDBI getRootDBI()
+            {
+                return migratory.getRootDBI();
+            }
+
+            @Override
+            public MigratoryConfig getConfig()
+            {
+                return migratory.getConfig();
+            }
+
+            @Override
+            public DbSupport getDbSupport()
+            {
+                return migratory.getDbSupport();
+            }
+
+            @Override
+            public LoaderManager getLoaderManager()
+            {
+                return migratory.getLoaderManager();
+            }
+
+            @Override
+            public Collection<MigrationLocator> getLocators()
+            {
+                return migratory.getLocators();
+            }
+
+            @Override
+            public MigrationInformationStrategy getInformationStrategy()
+            {
+                return migratory.getInformationStrategy();
+            }
+        };
+
+        final Map<String, Migration> p2Migrations = new MigrationManager(plainContext, "p2").getMigrations();
+        Assert.assertEquals(migratory.getMigrationCatalog().getMigrations("p2").keySet(), p2Migrations.keySet());
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        final MigrationCatalog catalog = migratory.getMigrationCatalog();
+
+        final Map<String, Migration> p2Migrations = catalog.getMigrations("p2");
+        catalog.invalidate("p2");
+
+        final Map<String, Migration> rescanned = catalog.getMigrations("p2");
+        Assert.assertNotSame(p2Migrations, rescanned);
+        Assert.assertEquals(p2Migrations.keySet(), rescanned.keySet());
+    }
+
+    @Test
+    public void testGraphCached()
+    {
+        final MigrationCatalog catalog = migratory.getMigrationCatalog();
+
+        final MigrationGraph graph = catalog.getMigrationGraph("p2");
+        Assert.assertSame(graph, catalog.getMigrationGraph("p2"));
+        Assert.assertSame(graph, new MigrationManager(migratory, "p2").getMigrationGraph());
+        Assert.assertEquals(0, graph.getFirstVersion());
+        Assert.assertEquals(2, graph.getLastVersion());
+
+        final List<Migration> path = graph.findPath(0, 2);
+        Assert.assertEquals(2, path.size());
+        Assert.assertSame(path, graph.findPath(0, 2));
+
+        catalog.invalidate("p2");
+        Assert.assertNotSame(graph, catalog.getMigrationGraph("p2"));
+    }
+
+    @Test
+    public void testParallelLocators()
+    {
+        final Migratory parallelMigratory = new Migratory(new MigratoryConfig() {
+            @Override
+            public int getLocatorThreads()
+            {
+                return 4;
+            }
+        }, new DBI(TestMigratory.H2_URL, "sa", ""));
+        parallelMigratory.addLocator(new TestClasspathLocator(parallelMigratory, "migration"));
+        parallelMigratory.addLocator(new TestClasspathLocator(parallelMigratory, "migration-validation"));
+
+        final Map<String, Migration> migrations = parallelMigratory.getMigrationCatalog().getMigrations("test");
+        Assert.assertEquals(3, migrations.size());
+
+        // Scripts with the same name are always taken from the last locator.
+        for (final Migration migration : migrations.values()) {
+            Assert.assertTrue(migration.getLocation(), migration.getLocation().contains("/migration-validation/"));
+        }
+
+        // All locators share one executor, it is stopped when the Migratory is closed.
+        final ExecutorService executor = parallelMigratory.getLocatorExecutor();
+        Assert.assertNotNull(executor);
+        Assert.assertSame(executor, parallelMigratory.getLocatorExecutor());
+
+        parallelMigratory.close();
+        Assert.assertTrue(executor.isShutdown());
+    }
+}
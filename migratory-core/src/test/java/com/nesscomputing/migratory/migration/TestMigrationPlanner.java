@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration;
+
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import com.nesscomputing.migratory.Migratory;
+import com.nesscomputing.migratory.MigratoryConfig;
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+import com.nesscomputing.migratory.TestMigratory;
+import com.nesscomputing.migratory.locator.MigrationLocator;
+import com.nesscomputing.migratory.migration.MigrationPlanner.MigrationDirection;
+
+public class TestMigrationPlanner
+{
+    private Migratory migratory = null;
+
+    @Before
+    public void setUp()
+    {
+        migratory = new Migratory(new MigratoryConfig() {}, new DBI(TestMigratory.H2_URL, "sa", ""));
+        migratory.addLocator(new StepLocator("linear", 0, 1, 1, 2, 2, 3));
+        migratory.addLocator(new StepLocator("hop", 0, 1, 1, 2, 2, 3, 0, 3));
+        migratory.addLocator(new StepLocator("back", 0, 1, 1, 2, 2, 1));
+    }
+
+    @Test
+    public void testLinear()
+    {
+        final MigrationPlanner planner = plan("linear", 0, Integer.MAX_VALUE);
+        Assert.assertEquals(MigrationDirection.FORWARD, planner.getDirection());
+        Assert.assertEquals(3, planner.getTargetVersion());
+        Assert.assertEquals(0, planner.getFirstVersion());
+        Assert.assertEquals(3, planner.getLastVersion());
+        Assert.assertEquals(ImmutableList.of("linear.0-1", "linear.1-2", "linear.2-3"), scriptNames(planner));
+
+        Assert.assertEquals(ImmutableList.of("linear.1-2"), scriptNames(plan("linear", 1, 2)));
+
+        final MigrationPlanner nothing = plan("linear", 3, 3);
+        Assert.assertEquals(MigrationDirection.DO_NOTHING, nothing.getDirection());
+        Assert.assertTrue(nothing.getPlannedMigrations().isEmpty());
+    }
+
+    @Test
+    public void testLinearNoPath()
+    {
+        assertFails("linear", 3, 1);
+        assertFails("linear", 5, Integer.MAX_VALUE);
+        assertFails("linear", 0, 7);
+    }
+
+    @Test
+    public void testHop()
+    {
+        Assert.assertEquals(ImmutableList.of("hop.0-3"), scriptNames(plan("hop", 0, Integer.MAX_VALUE)));
+        Assert.assertEquals(ImmutableList.of("hop.1-2", "hop.2-3"), scriptNames(plan("hop", 1, 3)));
+    }
+
+    @Test
+    public void testBack()
+    {
+        final MigrationPlanner planner = plan("back", 2, 1);
+        Assert.assertEquals(MigrationDirection.BACK, planner.getDirection());
+        Assert.assertEquals(ImmutableList.of("back.2-1"), scriptNames(planner));
+    }
+
+    @Test
+    public void testReachable()
+    {
+        Assert.assertEquals(ImmutableSortedSet.of(2, 3), plan("linear", 1, 1).getReachableVersions());
+        Assert.assertTrue(plan("linear", 3, 3).getReachableVersions().isEmpty());
+        Assert.assertEquals(ImmutableSortedSet.of(1, 2, 3), plan("hop", 0, 0).getReachableVersions());
+        Assert.assertEquals(ImmutableSortedSet.of(1), plan("back", 2, 2).getReachableVersions());
+
+        final MigrationPlanner planner = new MigrationPlanner(new MigrationManager(migratory, "linear"), 5, Integer.MAX_VALUE);
+        Assert.assertTrue(planner.getReachableVersions().isEmpty());
+        try {
+            planner.plan();
+            Assert.fail();
+        }
+        catch (MigratoryException me) {
+            Assert.assertTrue(planner.getReachableVersions().isEmpty());
+        }
+    }
+
+    private MigrationPlanner plan(final String personalityName, final int currentVersion, final int requestedVersion)
+    {
+        final MigrationPlanner planner = new MigrationPlanner(new MigrationManager(migratory, personalityName), currentVersion, requestedVersion);
+        planner.plan();
+        return planner;
+    }
+
+    private void assertFails(final String personalityName, final int currentVersion, final int requestedVersion)
+    {
+        try {
+            plan(personalityName, currentVersion, requestedVersion);
+            Assert.fail();
+        }
+        catch (MigratoryException me) {
+            Assert.assertEquals(Reason.VALIDATION_FAILED, me.getReason());
+        }
+    }
+
+    private static List<String> scriptNames(final MigrationPlanner planner)
+    {
+        final ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (final Migration migration : planner.getPlannedMigrations()) {
+            builder.add(migration.getScriptName());
+        }
+        return builder.build();
+    }
+
+    private static class StepLocator implements MigrationLocator
+    {
+        private final String personalityName;
+        private final int [] steps;
+
+        StepLocator(final String personalityName, final int ... steps)
+        {
+            this.personalityName = personalityName;
+            this.steps = steps;
+        }
+
+        @Override
+        public void contributeMigrations(final Map<String, Migration> migrations, final String personalityName, final String databaseType)
+        {
+            if (this.personalityName.equals(personalityName)) {
+                for (int i = 0; i < steps.length; i += 2) {
+                    final Migration migration = new StepMigration(personalityName, steps[i], steps[i + 1]);
+                    migrations.put(migration.getLocation(), migration);
+                }
+            }
+        }
+
+        @Override
+        public boolean isSystemLoader()
+        {
+            return false;
+        }
+    }
+
+    private static class StepMigration extends Migration
+    {
+        private final int startVersion;
+        private final int endVersion;
+
+        StepMigration(final String personalityName, final int startVersion, final int endVersion)
+        {
+            super(MigrationType.JAVA, personalityName, personalityName + "." + startVersion + "-" + endVersion);
+            this.startVersion = startVersion;
+            this.endVersion = endVersion;
+        }
+
+        @Override
+        public int getStartVersion()
+        {
+            return startVersion;
+        }
+
+        @Override
+        public int getEndVersion()
+        {
+            return endVersion;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return getScriptName();
+        }
+
+        @Override
+        public String getLocation()
+        {
+            return "step:" + getScriptName();
+        }
+
+        @Override
+        public String getChecksum()
+        {
+            return getScriptName();
+        }
+
+        @Override
+        public void migrate(final Handle handle)
+        {
+        }
+
+        @Override
+        public boolean isNeedsRoot()
+        {
+            return false;
+        }
+    }
+}
@@ -16,17 +16,24 @@
 package com.nesscomputing.migratory.migration.sql;
 
 
+import java.io.StringReader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.base.Charsets;
+
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.nesscomputing.migratory.MigratoryException;
+import com.nesscomputing.migratory.MigratoryException.Reason;
+
 /**
  * Test for SqlScript.
  */
@@ -103,4 +110,37 @@ public class SqlScriptSmallTest
         final Iterator<SqlStatement> it =  statements.iterator();
         Assert.assertEquals("select col1, col2 from mytable where col1 > 10", it.next().getSql());
     }
+
+    @Test
+    public void readerIsParsedLazily() {
+        lines.add("select 1;");
+        lines.add("select 2;");
+        sqlScript = new SqlScript(new StringReader(StringUtils.join(lines, "\n")));
+
+        final Iterator<SqlStatement> it = sqlScript.iterator();
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals("select 1", it.next().getSql());
+        Assert.assertTrue(it.hasNext());
+        Assert.assertEquals("select 2", it.next().getSql());
+        Assert.assertFalse(it.hasNext());
+
+        try {
+            sqlScript.iterator();
+            Assert.fail();
+        }
+        catch (MigratoryException me) {
+            Assert.assertEquals(Reason.INTERNAL, me.getReason());
+        }
+    }
+
+    @Test
+    public void sha1MatchesSource() throws Exception {
+        lines.add("-- \u00fcberall");
+        lines.add("insert into t values ('\u4e2d\u6587 \ud83d\ude00');");
+        final String rawSql = StringUtils.join(lines, "\r\n");
+        sqlScript = new SqlScript(rawSql);
+
+        Assert.assertEquals(1, sqlScript.getSqlStatements().size());
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(rawSql.getBytes(Charsets.UTF_8)), sqlScript.getSha1());
+    }
 }
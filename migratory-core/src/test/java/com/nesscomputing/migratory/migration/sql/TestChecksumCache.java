@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration.sql;
+
+
+import java.io.File;
+import java.net.URI;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.migratory.loader.FileLoader;
+
+public class TestChecksumCache
+{
+    private static final FileLoader FILE_LOADER = new FileLoader(Charsets.UTF_8);
+
+    private File tmpDir = null;
+    private File script = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        tmpDir = Files.createTempDir();
+        script = new File(tmpDir, "test.001.sql");
+        Files.write("CREATE TABLE test (id INT);", script, Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testCached()
+    {
+        final ChecksumCache cache = new ChecksumCache(new File(tmpDir, "cache"), "utf8", FILE_LOADER);
+        Assert.assertNull(cache.getChecksum(script.toURI()));
+
+        cache.putChecksum(script.toURI(), "abcdef");
+        Assert.assertEquals("abcdef", cache.getChecksum(script.toURI()));
+
+        // A second cache on the same directory sees the checksum.
+        Assert.assertEquals("abcdef", new ChecksumCache(new File(tmpDir, "cache"), "utf8", FILE_LOADER).getChecksum(script.toURI()));
+
+        // Different encodings result in different checksums.
+        Assert.assertNull(new ChecksumCache(new File(tmpDir, "cache"), "latin1", FILE_LOADER).getChecksum(script.toURI()));
+    }
+
+    @Test
+    public void testChanged() throws Exception
+    {
+        final ChecksumCache cache = new ChecksumCache(new File(tmpDir, "cache"), "utf8", FILE_LOADER);
+        cache.putChecksum(script.toURI(), "abcdef");
+
+        Files.append("CREATE TABLE test2 (id INT);", script, Charsets.UTF_8);
+        Assert.assertNull(cache.getChecksum(script.toURI()));
+    }
+
+    @Test
+    public void testUncachable()
+    {
+        final ChecksumCache cache = new ChecksumCache(new File(tmpDir, "cache"), "utf8", FILE_LOADER);
+        final URI location = URI.create("http://localhost/test.001.sql");
+
+        cache.putChecksum(location, "abcdef");
+        Assert.assertNull(cache.getChecksum(location));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        final ChecksumCache cache = new ChecksumCache(null, "utf8", FILE_LOADER);
+
+        cache.putChecksum(script.toURI(), "abcdef");
+        Assert.assertNull(cache.getChecksum(script.toURI()));
+    }
+}
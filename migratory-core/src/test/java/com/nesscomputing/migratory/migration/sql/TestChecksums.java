@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.migratory.migration.sql;
+
+
+import com.google.common.base.Charsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestChecksums
+{
+    // SHA-1 of "abc", has bytes with a leading zero.
+    private static final String ABC_SHA1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+    private static final String ABC_LEGACY = "a9993e36476816aba3e25717850c26c9cd0d89d";
+
+    @Test
+    public void testHex()
+    {
+        Assert.assertEquals(ABC_SHA1, Checksums.toHex(Checksums.newSha1().digest("abc".getBytes(Charsets.UTF_8))));
+        Assert.assertEquals("000fff", Checksums.toHex(new byte [] {0x00, 0x0f, (byte) 0xff}));
+    }
+
+    @Test
+    public void testLegacy()
+    {
+        Assert.assertEquals(ABC_LEGACY, Checksums.toLegacyHex(ABC_SHA1));
+        Assert.assertNull(Checksums.toLegacyHex("abc"));
+        Assert.assertNull(Checksums.toLegacyHex(null));
+    }
+
+    @Test
+    public void testMatches()
+    {
+        Assert.assertTrue(Checksums.matches(ABC_SHA1, ABC_SHA1, false));
+        Assert.assertTrue(Checksums.matches(ABC_SHA1, ABC_LEGACY, true));
+        Assert.assertFalse(Checksums.matches(ABC_SHA1, ABC_LEGACY, false));
+        Assert.assertFalse(Checksums.matches(ABC_SHA1, "a9993e36", true));
+        Assert.assertFalse(Checksums.matches(ABC_SHA1, null, true));
+    }
+}
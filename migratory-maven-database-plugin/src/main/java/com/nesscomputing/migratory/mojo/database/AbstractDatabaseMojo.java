@@ -48,8 +48,10 @@ import org.skife.jdbi.v2.DBI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.nesscomputing.migratory.Migratory;
 import com.nesscomputing.migratory.MigratoryConfig;
 import com.nesscomputing.migratory.MigratoryOption;
+import com.nesscomputing.migratory.jdbi.PooledConnectionFactory;
 import com.nesscomputing.migratory.loader.FileLoader;
 import com.nesscomputing.migratory.loader.JarLoader;
 import com.nesscomputing.migratory.loader.LoaderManager;
@@ -80,6 +82,9 @@ public abstract class AbstractDatabaseMojo extends AbstractMojo
 
     protected MigratoryOption [] optionList;
 
+    /** Connection pools by user and url, closed at the end of the execution. */
+    private final Map<String, PooledConnectionFactory> connectionPools = Maps.newHashMap();
+
     private void stateCheck()
         throws MojoExecutionException
     {
@@ -174,7 +179,13 @@ public abstract class AbstractDatabaseMojo extends AbstractMojo
 
             final MigratoryConfig initialMigratoryConfig = initialConfigFactory.build(MigratoryConfig.class);
             final LoaderManager initialLoaderManager = createLoaderManager(initialMigratoryConfig);
-            final String contents = initialLoaderManager.loadFile(URI.create(location.toString()));
+            final String contents;
+            try {
+                contents = initialLoaderManager.loadFile(URI.create(location.toString()));
+            }
+            finally {
+                initialLoaderManager.close();
+            }
 
             if (contents == null) {
                 throw new MojoExecutionException(format("Could not load manifest '%s' from '%s'", manifestName, manifestUrl));
@@ -212,6 +223,13 @@ public abstract class AbstractDatabaseMojo extends AbstractMojo
             throw new MojoExecutionException("Failure:" ,e);
         }
         finally {
+            if (loaderManager != null) {
+                loaderManager.close();
+            }
+            for (PooledConnectionFactory pool : connectionPools.values()) {
+                pool.close();
+            }
+            connectionPools.clear();
             ConfigureLog4j.stop(this);
         }
     }
@@ -264,6 +282,16 @@ public abstract class AbstractDatabaseMojo extends AbstractMojo
             public String getDBTablespace() {
                 return baseConfig.getDBTablespace();
             }
+
+            @Override
+            public int getDBPoolSize() {
+                return baseConfig.getDBPoolSize();
+            }
+
+            @Override
+            public String getDBPoolValidationQuery() {
+                return baseConfig.getDBPoolValidationQuery();
+            }
         };
     }
 
@@ -278,7 +306,37 @@ public abstract class AbstractDatabaseMojo extends AbstractMojo
             Class.forName(dbiConfig.getDBDriverClass());
         }
 
-        return new DBI(dbiConfig.getDBUrl(), dbiConfig.getDBUser(), dbiConfig.getDBPassword());
+        return createDBI(dbiConfig.getDBUrl(), dbiConfig.getDBUser(), dbiConfig.getDBPassword(), dbiConfig);
+    }
+
+    /**
+     * Returns a DBI for a database that connects with the root user.
+     */
+    protected DBI getRootDBIFor(final DBIConfig databaseConfig) throws Exception
+    {
+        return createDBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword(), rootDBIConfig);
+    }
+
+    private DBI createDBI(final String url, final String user, final String password, final DBIConfig poolConfig)
+    {
+        final int poolSize = poolConfig.getDBPoolSize();
+        if (poolSize <= 0) {
+            return new DBI(url, user, password);
+        }
+
+        final String key = user + "@" + url;
+        PooledConnectionFactory pool = connectionPools.get(key);
+        if (pool == null) {
+            final int minimumPoolSize = Migratory.getMinimumPoolSize(migratoryConfig);
+            if (poolSize < minimumPoolSize) {
+                LOG.warn("A pool of {} connections is too small, using {} connections.", poolSize, minimumPoolSize);
+            }
+            pool = new PooledConnectionFactory(url, user, password, Math.max(poolSize, minimumPoolSize), poolConfig.getDBPoolValidationQuery(),
+                                               PooledConnectionFactory.DEFAULT_IDLE_TIMEOUT,
+                                               PooledConnectionFactory.DEFAULT_MAX_WAIT);
+            connectionPools.put(key, pool);
+        }
+        return new DBI(pool);
     }
 
     protected List<String> expandDatabaseList(final String databases) throws MojoExecutionException
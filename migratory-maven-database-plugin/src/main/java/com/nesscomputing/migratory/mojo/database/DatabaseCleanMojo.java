@@ -61,12 +61,18 @@ public class DatabaseCleanMojo extends AbstractDatabaseMojo
             CONSOLE.info("Cleaning Database {}...", database);
 
             final DBIConfig databaseConfig = getDBIConfigFor(database);
-            final DBI rootDbDbi = new DBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword());
+            final DBI rootDbDbi = getRootDBIFor(databaseConfig);
             final DBI dbi = getDBIFor(database);
 
             try {
                 final Migratory migratory = new Migratory(migratoryConfig, dbi, rootDbDbi);
-                migratory.dbClean(optionList);
+                try {
+                    migratory.setDbUrl(databaseConfig.getDBUrl());
+                    migratory.dbClean(optionList);
+                }
+                finally {
+                    migratory.close();
+                }
             }
             catch (MigratoryException me) {
                 CONSOLE.warn("While cleaning {}", database, me);
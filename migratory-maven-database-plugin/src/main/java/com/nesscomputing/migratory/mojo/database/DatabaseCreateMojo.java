@@ -75,7 +75,7 @@ public class DatabaseCreateMojo extends AbstractDatabaseMojo
             final String user = databaseConfig.getDBUser();
 
             // Language and schema creation runs as root user, but connected to the actual database.
-            final DBI rootDbDbi = new DBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword());
+            final DBI rootDbDbi = getRootDBIFor(databaseConfig);
             rootDbDbi.setStatementLocator(statementLocator);
 
             if (MigratoryOption.containsOption(MigratoryOption.DRY_RUN, optionList)) {
@@ -265,16 +265,22 @@ public class DatabaseCreateMojo extends AbstractDatabaseMojo
                     final DBI dbi = getDBIFor(database);
 
                     Migratory migratory = new Migratory(migratoryConfig, dbi);
-                    final List<MetadataInfo> result = migratory.dbInit();
-                    if (result != null) {
-                        final MigrationState state = MetadataInfo.determineMigrationState(result);
-                        if (state != MigrationState.OK) {
-                            throw new MojoExecutionException(String.format("Could not initialize metadata, returned status %s", state));
+                    try {
+                        migratory.setDbUrl(databaseConfig.getDBUrl());
+                        final List<MetadataInfo> result = migratory.dbInit();
+                        if (result != null) {
+                            final MigrationState state = MetadataInfo.determineMigrationState(result);
+                            if (state != MigrationState.OK) {
+                                throw new MojoExecutionException(String.format("Could not initialize metadata, returned status %s", state));
+                            }
+                            CONSOLE.info("... initialized metadata ...");
+                        }
+                        else {
+                            CONSOLE.info("... metadata already exists...");
                         }
-                        CONSOLE.info("... initialized metadata ...");
                     }
-                    else {
-                        CONSOLE.info("... metadata already exists...");
+                    finally {
+                        migratory.close();
                     }
                 }
                 catch (DBIException de) {
@@ -67,16 +67,22 @@ public class DatabaseStatusMojo extends AbstractDatabaseMojo
             final Map<String, MigrationInformation> availableMigrations = getAvailableMigrations(database);
 
             final DBIConfig databaseConfig = getDBIConfigFor(database);
-            final DBI rootDbDbi = new DBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword());
+            final DBI rootDbDbi = getRootDBIFor(databaseConfig);
             final DBI dbi = getDBIFor(database);
 
             try {
                 final Migratory migratory = new Migratory(migratoryConfig, dbi, rootDbDbi);
-                migratory.addLocator(new MojoLocator(migratory, manifestUrl));
-                final Map<String, StatusResult> results = migratory.dbStatus(availableMigrations.keySet(), optionList);
-
-                dump(database, results.values());
-                CONSOLE.info("{}", FRAME);
+                try {
+                    migratory.setDbUrl(databaseConfig.getDBUrl());
+                    migratory.addLocator(new MojoLocator(migratory, manifestUrl));
+                    final Map<String, StatusResult> results = migratory.dbStatus(availableMigrations.keySet(), optionList);
+
+                    dump(database, results.values());
+                    CONSOLE.info("{}", FRAME);
+                }
+                finally {
+                    migratory.close();
+                }
             }
             catch (MigratoryException me) {
                 CONSOLE.warn("While getting status for {}", database, me);
@@ -75,7 +75,7 @@ public class DatabaseUpgradeMojo extends AbstractDatabaseMojo
             final String databaseName = database.getKey();
 
             final DBIConfig databaseConfig = getDBIConfigFor(databaseName);
-            final DBI rootDbDbi = new DBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword());
+            final DBI rootDbDbi = getRootDBIFor(databaseConfig);
             final DBI dbi = getDBIFor(databaseName);
 
             try {
@@ -84,14 +84,20 @@ public class DatabaseUpgradeMojo extends AbstractDatabaseMojo
                     CONSOLE.info("Migrating {} ...", databaseName);
 
                     Migratory migratory = new Migratory(migratoryConfig, dbi, rootDbDbi);
-                    migratory.addLocator(new MojoLocator(migratory, manifestUrl));
-                    final Map<String, List<MetadataInfo>> results = migratory.dbMigrate(rootMigrationPlan, optionList);
-                    for (Map.Entry<String, List<MetadataInfo>> entry : results.entrySet()) {
-                        final MigrationState state = MetadataInfo.determineMigrationState(entry.getValue());
-                        if (state != MigrationState.OK) {
-                            throw new MojoExecutionException(String.format("Migration of %s failed with %s!", entry.getKey(), state));
+                    try {
+                        migratory.setDbUrl(databaseConfig.getDBUrl());
+                        migratory.addLocator(new MojoLocator(migratory, manifestUrl));
+                        final Map<String, List<MetadataInfo>> results = migratory.dbMigrate(rootMigrationPlan, optionList);
+                        for (Map.Entry<String, List<MetadataInfo>> entry : results.entrySet()) {
+                            final MigrationState state = MetadataInfo.determineMigrationState(entry.getValue());
+                            if (state != MigrationState.OK) {
+                                throw new MojoExecutionException(String.format("Migration of %s failed with %s!", entry.getKey(), state));
+                            }
                         }
                     }
+                    finally {
+                        migratory.close();
+                    }
                 }
             }
             catch (MigratoryException me) {
@@ -66,16 +66,22 @@ public class DatabaseValidateMojo extends AbstractDatabaseMojo
             final Map<String, MigrationInformation> availableMigrations = getAvailableMigrations(database);
 
             final DBIConfig databaseConfig = getDBIConfigFor(database);
-            final DBI rootDbDbi = new DBI(databaseConfig.getDBUrl(), rootDBIConfig.getDBUser(), rootDBIConfig.getDBPassword());
+            final DBI rootDbDbi = getRootDBIFor(databaseConfig);
             final DBI dbi = getDBIFor(database);
 
             try {
                 final Migratory migratory = new Migratory(migratoryConfig, dbi, rootDbDbi);
-                migratory.addLocator(new MojoLocator(migratory, manifestUrl));
-                final Map<String, ValidationResult> results = migratory.dbValidate(availableMigrations.keySet(), optionList);
+                try {
+                    migratory.setDbUrl(databaseConfig.getDBUrl());
+                    migratory.addLocator(new MojoLocator(migratory, manifestUrl));
+                    final Map<String, ValidationResult> results = migratory.dbValidate(availableMigrations.keySet(), optionList);
 
-                dump(database, results);
-                CONSOLE.info("{}", HEAD_FRAME);
+                    dump(database, results);
+                    CONSOLE.info("{}", HEAD_FRAME);
+                }
+                finally {
+                    migratory.close();
+                }
             }
             catch (MigratoryException me) {
                 CONSOLE.warn("While validating for {}", database, me);
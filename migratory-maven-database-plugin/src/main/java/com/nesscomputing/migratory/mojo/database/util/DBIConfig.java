@@ -16,6 +16,7 @@
 package com.nesscomputing.migratory.mojo.database.util;
 
 import org.skife.config.Config;
+import org.skife.config.Default;
 import org.skife.config.DefaultNull;
 
 public interface DBIConfig
@@ -39,4 +40,15 @@ public interface DBIConfig
     @Config({"${_dbi_name}tablespace", "${_prefix}.default.tablespace"})
     @DefaultNull
     String getDBTablespace();
+
+    /**
+     * Number of pooled connections, 0 opens a new connection for every handle.
+     */
+    @Config({"${_dbi_name}pool_size", "${_prefix}.default.pool_size"})
+    @Default("0")
+    int getDBPoolSize();
+
+    @Config({"${_dbi_name}pool_validation_query", "${_prefix}.default.pool_validation_query"})
+    @DefaultNull
+    String getDBPoolValidationQuery();
 }
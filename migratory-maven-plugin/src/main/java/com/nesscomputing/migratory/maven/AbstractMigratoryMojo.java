@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import com.nesscomputing.migratory.Migratory;
 import com.nesscomputing.migratory.MigratoryConfig;
 import com.nesscomputing.migratory.MigratoryOption;
+import com.nesscomputing.migratory.jdbi.PooledConnectionFactory;
 
 abstract class AbstractMigratoryMojo extends AbstractMojo
 {
@@ -73,6 +74,13 @@ abstract class AbstractMigratoryMojo extends AbstractMojo
      */
     private String driver;
 
+    /**
+     * Database type as reported by the JDBC driver, e.g. H2 or PostgreSQL. Detected if not set.
+     *
+     * @parameter expression="${db.type}"
+     */
+    private String dbType;
+
     /**
      * @parameter expression="${db.url}"
      * @required
@@ -89,6 +97,20 @@ abstract class AbstractMigratoryMojo extends AbstractMojo
      */
     private String password;
 
+    /**
+     * Number of pooled connections, 0 opens a new connection for every handle.
+     *
+     * @parameter expression="${db.pool-size}"
+     */
+    private int poolSize = 0;
+
+    /**
+     * @parameter expression="${db.pool-validation-query}"
+     */
+    private String poolValidationQuery;
+
+    private PooledConnectionFactory connectionPool = null;
+
     /**
      * @parameter expression="${options}"
      */
@@ -99,10 +121,13 @@ abstract class AbstractMigratoryMojo extends AbstractMojo
     {
         ConfigureLog4j.start(this);
 
+        Migratory migratory = null;
         try {
             this.optionList = parseOptions(options);
 
-            final Migratory migratory = new Migratory(getConfig(), createDBI());
+            final MigratoryConfig migratoryConfig = getConfig();
+            migratory = new Migratory(migratoryConfig, createDBI(migratoryConfig));
+            migratory.setDbUrl(url);
             doExecute(migratory);
         }
         catch (Exception e) {
@@ -110,6 +135,13 @@ abstract class AbstractMigratoryMojo extends AbstractMojo
             throw new MojoExecutionException("Migratory Error: ", e);
         }
         finally {
+            if (migratory != null) {
+                migratory.close();
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
             ConfigureLog4j.stop(this);
         }
     }
@@ -122,17 +154,33 @@ abstract class AbstractMigratoryMojo extends AbstractMojo
     /**
      * Creates the datasource config based on the provided parameters.
      */
-    private DBI createDBI() throws Exception
+    private DBI createDBI(final MigratoryConfig migratoryConfig) throws Exception
     {
         if (driver != null) {
             Class.forName(driver).newInstance();
         }
+        if (poolSize > 0) {
+            final int minimumPoolSize = Migratory.getMinimumPoolSize(migratoryConfig);
+            if (poolSize < minimumPoolSize) {
+                CONSOLE.warn("A pool of {} connections is too small, using {} connections.", poolSize, minimumPoolSize);
+            }
+            connectionPool = new PooledConnectionFactory(url, user, password, Math.max(poolSize, minimumPoolSize), poolValidationQuery,
+                                                         PooledConnectionFactory.DEFAULT_IDLE_TIMEOUT,
+                                                         PooledConnectionFactory.DEFAULT_MAX_WAIT);
+            return new DBI(connectionPool);
+        }
         return new DBI(url, user, password);
     }
 
     private MigratoryConfig getConfig()
     {
         return new MigratoryConfig() {
+            @Override
+            public String getDbType()
+            {
+                return dbType;
+            }
+
             @Override
             public String getEncoding()
             {